@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import match.expression.IExpression;
+import match.expression.function.IFunction;
+
+/**
+ * Records what each target was built from, so targets whose inputs haven't changed can be skipped.
+ *
+ * <p>
+ * Each target has a record under out/match/database/ holding the fingerprint of its function,
+ * resolved parameters and input file digests, along with the commands it ran and the digests of
+ * the files and directories it provided. A target is up to date if its fingerprint matches, the
+ * files and directories it provided are still intact, and every file it declared is still there.
+ * </p>
+ *
+ * <p>
+ * Paths under the root directory are fingerprinted relative to it, so the same target in another
+ * checkout of the workspace has the same fingerprint.
+ * </p>
+ */
+public class Database {
+
+    public static final String DATABASE = "out/match/database/";
+    // Bump whenever the functions change the way they build, so old records are ignored
+    public static final int VERSION = 4;
+
+    public static final String COMMAND = "command.";
+    public static final String DIRECTORY = "directory.";
+    public static final String FINGERPRINT = "fingerprint";
+    public static final String INPUT = "input.";
+    public static final String OUTPUT = "output.";
+    public static final String PARAMETER = "parameter.";
+
+    private final IMatch match;
+    private final Graph graph;
+    private final Hasher hasher;
+    private final File directory;
+    private final ConcurrentMap<ITarget, Set<String>> outputs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ITarget, Set<String>> directories = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a database storing its records in the given directory.
+     */
+    public Database(IMatch match, Graph graph, Hasher hasher, File directory) {
+        this.match = match;
+        this.graph = graph;
+        this.hasher = hasher;
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a new record for the given target, resolving its parameters and hashing its inputs.
+     *
+     * <p>
+     * The inputs are the files the target consumes according to the graph, and any files named by
+     * its parameters once environment variables in them have been expanded. Values which don't name
+     * a file, such as plain properties, are only fingerprinted as parameters.
+     * </p>
+     *
+     * @return the record, holding the target's fingerprint.
+     */
+    public Properties fingerprint(ITarget target) throws Exception {
+        Properties record = new Properties();
+        StringBuilder sb = new StringBuilder();
+        sb.append(VERSION).append('\n');
+        IFunction function = target.getFunction();
+        sb.append(function.getClass().getName()).append('\n');
+        sb.append(relativize(target.getDirectory().toPath().normalize().toAbsolutePath().toString())).append('\n');
+        Set<String> inputs = new TreeSet<>();
+        for (String input : graph.getInputs(target)) {
+            addInput(inputs, new File(input));
+        }
+        Map<String, IExpression> parameters = new TreeMap<>(function.getParameters());
+        for (Map.Entry<String, IExpression> entry : parameters.entrySet()) {
+            List<String> values = entry.getValue().resolveList();
+            String value = Utilities.join("\n", values);
+            record.setProperty(PARAMETER + entry.getKey(), value);
+            sb.append(entry.getKey()).append('=');
+            for (String v : values) {
+                sb.append(relativize(v)).append('\n');
+                File file = new File(Utilities.expand(v));
+                if (!file.isAbsolute()) {
+                    file = new File(target.getDirectory(), file.getPath());
+                }
+                addInput(inputs, file.getAbsoluteFile());
+            }
+            sb.append('\n');
+        }
+        for (String input : inputs) {
+            String digest = hasher.hash(new File(input));
+            record.setProperty(INPUT + input, digest);
+            sb.append(relativize(input)).append('=').append(digest).append('\n');
+        }
+        record.setProperty(FINGERPRINT, Hasher.hash(sb.toString()));
+        return record;
+    }
+
+    /**
+     * Checks if the given target is up to date with its stored record, and if so provides the
+     * files it provided last time it was built.
+     *
+     * @return true iff the target doesn't need to be built.
+     */
+    public boolean isUpToDate(ITarget target, Properties record) throws Exception {
+        Properties stored = Utilities.readProperties(getFile(target));
+        String fingerprint = stored.getProperty(FINGERPRINT);
+        if (fingerprint == null || !fingerprint.equals(record.getProperty(FINGERPRINT))) {
+            return false;
+        }
+        for (String output : graph.getOutputs(target)) {
+            if (!new File(output).exists()) {
+                return false;
+            }
+        }
+        List<File> files = new ArrayList<>();
+        List<File> folders = new ArrayList<>();
+        for (String key : stored.stringPropertyNames()) {
+            File file;
+            if (key.startsWith(OUTPUT)) {
+                file = new File(key.substring(OUTPUT.length()));
+                files.add(file);
+            } else if (key.startsWith(DIRECTORY)) {
+                file = new File(key.substring(DIRECTORY.length()));
+                folders.add(file);
+            } else {
+                continue;
+            }
+            if (!hasher.hash(file).equals(stored.getProperty(key))) {
+                return false;
+            }
+        }
+        // Re-register the directories the target added, as other targets may look files up in them
+        for (File folder : folders) {
+            match.addDirectory(folder);
+        }
+        for (File file : files) {
+            match.provideFile(file);
+        }
+        outputs.remove(target);
+        directories.remove(target);
+        return true;
+    }
+
+    /**
+     * Records that the given target provided the given file while building.
+     */
+    public void addOutput(ITarget target, String file) {
+        get(outputs, target).add(file);
+    }
+
+    /**
+     * Records that the given target added the given directory to the build while building.
+     */
+    public void addDirectory(ITarget target, String directory) {
+        get(directories, target).add(directory);
+    }
+
+    /**
+     * Stores the given record for the target once it has been built, along with the commands it
+     * ran and the digests of the files and directories it provided.
+     */
+    public void store(ITarget target, Properties record) throws Exception {
+        List<String> commands = target.getCommands();
+        for (int i = 0; i < commands.size(); i++) {
+            record.setProperty(COMMAND + i, commands.get(i));
+        }
+        Set<String> files = outputs.remove(target);
+        if (files != null) {
+            for (String file : files) {
+                record.setProperty(OUTPUT + file, hasher.hash(new File(file)));
+            }
+        }
+        Set<String> folders = directories.remove(target);
+        if (folders != null) {
+            for (String folder : folders) {
+                record.setProperty(DIRECTORY + folder, hasher.hash(new File(folder)));
+            }
+        }
+        Utilities.writeProperties(record, getFile(target));
+    }
+
+    /**
+     * Converts the given absolute path into one relative to the root directory, if it is under it.
+     *
+     * @return the relative path, or the original path if it is outside the root directory.
+     */
+    public String relativize(String path) {
+        File root = match.getRootDir();
+        if (root != null) {
+            String directory = root.toPath().normalize().toAbsolutePath().toString();
+            String prefix = directory + File.separator;
+            if (path.equals(directory)) {
+                return "";
+            }
+            if (path.startsWith(prefix)) {
+                return path.substring(prefix.length());
+            }
+        }
+        return path;
+    }
+
+    private static void addInput(Set<String> inputs, File file) {
+        // Only absolute paths name files, anything else is a plain value such as a version number
+        if (file.isAbsolute() && file.exists()) {
+            inputs.add(file.toPath().normalize().toAbsolutePath().toString());
+        }
+    }
+
+    private static Set<String> get(ConcurrentMap<ITarget, Set<String>> map, ITarget target) {
+        Set<String> set = map.get(target);
+        if (set == null) {
+            set = ConcurrentHashMap.newKeySet();
+            Set<String> existing = map.putIfAbsent(target, set);
+            if (existing != null) {
+                set = existing;
+            }
+        }
+        return set;
+    }
+
+    private File getFile(ITarget target) throws Exception {
+        return new File(directory, URLEncoder.encode(target.getName(), "UTF-8"));
+    }
+}
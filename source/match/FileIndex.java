@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Tracks which files will be provided during the build, and which of those have been provided.
+ *
+ * <p>
+ * Each file is looked up by its id in a path table, and its status is kept in a pair of bit sets,
+ * so the whole workspace can be registered cheaply. A future to wait on is only created for a file
+ * which is awaited before it has been provided.
+ * </p>
+ */
+public class FileIndex {
+
+    private static final Future<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final PathTable paths;
+    private final BitSet added = new BitSet();
+    private final BitSet provided = new BitSet();
+    private final Map<Integer, CompletableFuture<Void>> waiting = new HashMap<>();
+
+    /**
+     * Creates an index of files interned in the given path table.
+     */
+    public FileIndex(PathTable paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Records that the given file will be provided, resetting it if it was provided before.
+     */
+    public synchronized void add(String file) {
+        int id = paths.add(file);
+        added.set(id);
+        provided.clear(id);
+    }
+
+    /**
+     * Records that the file with the given id exists and is already provided, such as a file in
+     * the workspace.
+     */
+    public synchronized void addProvided(int id) {
+        added.set(id);
+        provided.set(id);
+    }
+
+    /**
+     * Checks if the given file has been added.
+     *
+     * @return true iff the file was added.
+     */
+    public synchronized boolean contains(String file) {
+        int id = paths.getId(file);
+        return id != PathTable.MISSING && added.get(id);
+    }
+
+    /**
+     * Marks the given file as provided, releasing anything waiting on it.
+     *
+     * @return false if the file was never added.
+     */
+    public synchronized boolean provide(String file) {
+        int id = paths.getId(file);
+        if (id == PathTable.MISSING || !added.get(id)) {
+            return false;
+        }
+        provided.set(id);
+        CompletableFuture<Void> future = waiting.remove(id);
+        if (future != null) {
+            future.complete(null);
+        }
+        return true;
+    }
+
+    /**
+     * Gets a future which completes once the given file has been provided.
+     *
+     * @return the future, or null if the file was never added.
+     */
+    public synchronized Future<Void> await(String file) {
+        int id = paths.getId(file);
+        if (id == PathTable.MISSING || !added.get(id)) {
+            return null;
+        }
+        if (provided.get(id)) {
+            return DONE;
+        }
+        CompletableFuture<Void> future = waiting.get(id);
+        if (future == null) {
+            future = new CompletableFuture<>();
+            waiting.put(id, future);
+        }
+        return future;
+    }
+
+    /**
+     * Gets the number of files added.
+     */
+    public synchronized int size() {
+        return added.cardinality();
+    }
+
+    /**
+     * Gets the number of files being waited on.
+     */
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
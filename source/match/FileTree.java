@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An in-memory index of the files and directories found on disk, so searching the workspace
+ * doesn't have to list any directories again.
+ *
+ * <p>
+ * Entries are keyed by their path table id, and each directory's children are linked through
+ * first child and next sibling arrays, so the tree only costs a few ints per entry. It is filled
+ * once by the workspace scan and extended with each generated directory as it is added to the
+ * build, entries are never removed.
+ * </p>
+ */
+public class FileTree {
+
+    private static final int NONE = PathTable.MISSING;
+
+    private final PathTable paths;
+    private final BitSet entries = new BitSet();
+    private final BitSet directories = new BitSet();
+    private int[] firstChildren = new int[64];
+    private int[] nextSiblings = new int[64];
+
+    /**
+     * Creates an empty tree over the given path table.
+     */
+    public FileTree(PathTable paths) {
+        this.paths = paths;
+        Arrays.fill(firstChildren, NONE);
+        Arrays.fill(nextSiblings, NONE);
+    }
+
+    /**
+     * Adds the entry with the given id, linking it to its parent if the parent is in the tree.
+     *
+     * @return true iff the entry wasn't already in the tree.
+     */
+    public synchronized boolean add(int id, boolean directory) {
+        if (entries.get(id)) {
+            return false;
+        }
+        grow(id);
+        entries.set(id);
+        if (directory) {
+            directories.set(id);
+        }
+        int parent = paths.getParent(id);
+        if (parent != NONE && directories.get(parent)) {
+            nextSiblings[id] = firstChildren[parent];
+            firstChildren[parent] = id;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the entry with the given id is a file in the tree.
+     */
+    public synchronized boolean isFile(int id) {
+        return entries.get(id) && !directories.get(id);
+    }
+
+    /**
+     * Checks if the entry with the given id is a directory in the tree.
+     */
+    public synchronized boolean isDirectory(int id) {
+        return directories.get(id);
+    }
+
+    /**
+     * Gets the number of files and directories in the tree.
+     */
+    public synchronized int size() {
+        return entries.cardinality();
+    }
+
+    /**
+     * Lists every file under the given directory.
+     *
+     * @return the paths of the files relative to the directory and separated by '/', or null if
+     *         the directory isn't in the tree.
+     */
+    public List<String> list(String directory) {
+        return list(directory, Glob.ALL);
+    }
+
+    /**
+     * Lists the files under the given directory matching the given glob, skipping any directories
+     * the glob can't match anything under.
+     *
+     * @return the paths of the files relative to the directory and separated by '/', or null if
+     *         the directory isn't in the tree.
+     */
+    public synchronized List<String> list(String directory, Glob glob) {
+        int id = paths.getId(directory);
+        if (id == NONE || !directories.get(id)) {
+            return null;
+        }
+        List<String> files = new ArrayList<>();
+        list(id, "", glob.getStart(), files);
+        return files;
+    }
+
+    private void list(int directory, String prefix, Glob.State state, List<String> files) {
+        for (int child = firstChildren[directory]; child != NONE; child = nextSiblings[child]) {
+            String name = paths.getName(child);
+            if (directories.get(child)) {
+                Glob.State next = state.enter(name);
+                if (next != null) {
+                    list(child, prefix + name + "/", next, files);
+                }
+            } else if (state.matches(name)) {
+                files.add(prefix + name);
+            }
+        }
+    }
+
+    private void grow(int id) {
+        if (id >= firstChildren.length) {
+            int length = Math.max(firstChildren.length * 2, id + 1);
+            int old = firstChildren.length;
+            firstChildren = Arrays.copyOf(firstChildren, length);
+            nextSiblings = Arrays.copyOf(nextSiblings, length);
+            Arrays.fill(firstChildren, old, length, NONE);
+            Arrays.fill(nextSiblings, old, length, NONE);
+        }
+    }
+}
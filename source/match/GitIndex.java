@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The files tracked by git in the workspace, read directly from the git index.
+ *
+ * <p>
+ * The index stores the blob id of each tracked file along with the file's stat data when it was
+ * last staged or refreshed. Since a file's digest is the same as its blob id, a file whose size,
+ * modification time, change time and inode all still match doesn't need to be read to be hashed,
+ * which is the same check `git status` makes by default. Without the change time and inode, a file
+ * replaced by another of the same size and modification time, as by `cp -p` or unpacking an
+ * archive, would be given the old blob id. Where the file system has no inodes or change times,
+ * as on Windows, the creation time is compared instead, as Git for Windows stores it.
+ * </p>
+ *
+ * <p>
+ * As with git, an entry modified no earlier than the index itself is racy, as the file could have
+ * changed again within the same tick, so it isn't trusted. Neither are conflicted entries, entries
+ * git has been told to assume are unchanged or to skip, or anything other than regular files.
+ * Versions 2 to 4 of the index are supported, but not split indexes.
+ * </p>
+ *
+ * <p>
+ * A blob id is the hash of the file as git stores it, after any clean filter and line ending
+ * conversion, which isn't the hash of the bytes in the work tree when those apply. So the index
+ * isn't used at all if core.autocrlf is set, or any attributes file sets the text, eol, ident,
+ * filter or working-tree-encoding attributes.
+ * </p>
+ *
+ * <p>
+ * The index only speeds up hashing. Files are still found by walking the workspace, since git
+ * also has to list directories to find untracked files, and the snapshot already skips listing
+ * directories which haven't changed.
+ * </p>
+ */
+public class GitIndex {
+
+    private static final int SIGNATURE = 0x44495243; // DIRC
+    private static final int SPLIT_INDEX = 0x6c696e6b; // link
+    private static final int HEADER_SIZE = 12;
+    private static final int HASH_SIZE = 20;
+    // The fixed part of an entry before its path
+    private static final int ENTRY_SIZE = 62;
+    private static final int ASSUME_VALID = 0x8000;
+    private static final int EXTENDED = 0x4000;
+    private static final int STAGE = 0x3000;
+    private static final int NAME_LENGTH = 0xFFF;
+    private static final int SKIP_WORKTREE = 0x4000;
+    private static final int INTENT_TO_ADD = 0x2000;
+    private static final int TYPE = 0170000;
+    private static final int REGULAR_FILE = 0100000;
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private static final String ATTRIBUTES = ".gitattributes";
+    // Attributes which make the blob differ from the file in the work tree
+    private static final List<String> CONVERSIONS = Arrays.asList("text", "eol", "ident", "filter", "working-tree-encoding");
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<String> attributes = new ArrayList<>();
+
+    private GitIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Reads the index of the git work tree rooted at the given directory.
+     *
+     * @return the index, or null if the directory isn't the root of a work tree, or the index
+     *         couldn't be read.
+     */
+    public static GitIndex load(File root) {
+        Path directory = root.toPath().normalize().toAbsolutePath();
+        try {
+            File git = getGitDir(directory.toFile());
+            if (git == null) {
+                return null;
+            }
+            File file = new File(git, "index");
+            if (!file.isFile()) {
+                return null;
+            }
+            long modified = Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+            GitIndex index = new GitIndex(directory);
+            if (!index.parse(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), modified)) {
+                return null;
+            }
+            return index.isConverted(git) ? null : index;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or unexpected index is the same as none, the files will just be hashed
+            return null;
+        }
+    }
+
+    /**
+     * Gets the digest of the given file from the index, if the file hasn't changed since.
+     *
+     * @return the file's blob id, or null if the file isn't tracked, or may have changed.
+     */
+    public String getDigest(File file) {
+        Path path = file.toPath().normalize().toAbsolutePath();
+        if (!path.startsWith(directory)) {
+            return null;
+        }
+        Entry entry = entries.get(directory.relativize(path).toString().replace(File.separatorChar, '/'));
+        if (entry == null) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || (attributes.size() & 0xFFFFFFFFL) != entry.size) {
+                return null;
+            }
+            if (!matches(attributes.lastModifiedTime(), entry.seconds, entry.nanoseconds)) {
+                return null;
+            }
+            if (UNIX) {
+                Map<String, Object> unix = Files.readAttributes(path, "unix:ino,ctime");
+                // The index only keeps the low 32 bits of the inode
+                if (((Long) unix.get("ino") & 0xFFFFFFFFL) != entry.inode
+                        || !matches((FileTime) unix.get("ctime"), entry.changedSeconds, entry.changedNanoseconds)) {
+                    return null;
+                }
+            } else if (!matches(attributes.creationTime(), entry.changedSeconds, entry.changedNanoseconds)) {
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return entry.digest;
+    }
+
+    /**
+     * Gets the number of entries which can be trusted.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static boolean matches(FileTime time, long seconds, long nanoseconds) {
+        long nanos = time.to(TimeUnit.NANOSECONDS);
+        // Git may be built without nanosecond times, in which case they are always zero, and some
+        // JVMs only give times to the microsecond
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos % TimeUnit.SECONDS.toNanos(1));
+        return (TimeUnit.NANOSECONDS.toSeconds(nanos) & 0xFFFFFFFFL) == seconds
+                && (nanoseconds == 0 || micros == TimeUnit.NANOSECONDS.toMicros(nanoseconds));
+    }
+
+    private boolean parse(ByteBuffer buffer, long modified) {
+        if (buffer.getInt() != SIGNATURE) {
+            return false;
+        }
+        int version = buffer.getInt();
+        if (version < 2 || version > 4) {
+            return false;
+        }
+        int count = buffer.getInt();
+        byte[] previous = new byte[0];
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            int start = buffer.position();
+            long changedSeconds = buffer.getInt() & 0xFFFFFFFFL;
+            long changedNanoseconds = buffer.getInt() & 0xFFFFFFFFL;
+            long seconds = buffer.getInt() & 0xFFFFFFFFL;
+            long nanoseconds = buffer.getInt() & 0xFFFFFFFFL;
+            buffer.getInt(); // dev
+            long inode = buffer.getInt() & 0xFFFFFFFFL;
+            int mode = buffer.getInt();
+            buffer.getInt(); // uid
+            buffer.getInt(); // gid
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            buffer.get(hash);
+            int flags = buffer.getShort() & 0xFFFF;
+            int extended = 0;
+            if ((flags & EXTENDED) != 0) {
+                extended = buffer.getShort() & 0xFFFF;
+            }
+            byte[] name;
+            if (version == 4) {
+                // The path is stored as the number of bytes to drop from the end of the previous path, and a suffix
+                int drop = readOffset(buffer);
+                byte[] suffix = readString(buffer);
+                name = new byte[previous.length - drop + suffix.length];
+                System.arraycopy(previous, 0, name, 0, previous.length - drop);
+                System.arraycopy(suffix, 0, name, previous.length - drop, suffix.length);
+            } else {
+                int length = flags & NAME_LENGTH;
+                if (length < NAME_LENGTH) {
+                    name = new byte[length];
+                    buffer.get(name);
+                } else {
+                    name = readString(buffer);
+                    buffer.position(buffer.position() - 1);
+                }
+                // Entries are padded with one to eight nulls to a multiple of eight bytes
+                int end = start + ((buffer.position() - start + 8) & ~7);
+                buffer.position(end);
+            }
+            previous = name;
+            String path = new String(name, StandardCharsets.UTF_8);
+            if (path.equals(ATTRIBUTES) || path.endsWith("/" + ATTRIBUTES)) {
+                attributes.add(path);
+            }
+            boolean trusted = (flags & (ASSUME_VALID | STAGE)) == 0
+                    && (extended & (SKIP_WORKTREE | INTENT_TO_ADD)) == 0
+                    && (mode & TYPE) == REGULAR_FILE
+                    && isBefore(seconds, nanoseconds, modified);
+            if (trusted) {
+                entries.put(path, new Entry(seconds, nanoseconds, changedSeconds, changedNanoseconds, inode, size, Hasher.toHex(hash)));
+            }
+        }
+        // The shared index holds most of the entries of a split index, so this one isn't enough
+        while (buffer.remaining() > HASH_SIZE + 8) {
+            int signature = buffer.getInt();
+            int length = buffer.getInt();
+            if (signature == SPLIT_INDEX) {
+                return false;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether git may convert files between the work tree and the blobs in the index.
+     */
+    private boolean isConverted(File git) throws IOException {
+        String home = System.getProperty("user.home");
+        String xdg = System.getenv("XDG_CONFIG_HOME");
+        File config = xdg == null || xdg.isEmpty() ? new File(home, ".config/git") : new File(xdg, "git");
+        for (File file : new File[] {new File("/etc/gitconfig"), new File(home, ".gitconfig"), new File(config, "config"), new File(git, "config")}) {
+            if (hasAutoCrlf(file)) {
+                return true;
+            }
+        }
+        List<File> files = new ArrayList<>();
+        files.add(new File(config, "attributes"));
+        files.add(new File(git, "info/attributes"));
+        for (String path : attributes) {
+            files.add(directory.resolve(path).toFile());
+        }
+        for (File file : files) {
+            if (hasConversion(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasAutoCrlf(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        String section = "";
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim().toLowerCase(Locale.ROOT);
+            if (line.startsWith("[")) {
+                section = line.replaceAll("[\\[\\]\\s]", "");
+            } else if (section.equals("core") && line.startsWith("autocrlf")) {
+                String value = line.substring(line.indexOf('=') + 1).trim();
+                if (!value.equals("false") && !value.equals("no") && !value.equals("off") && !value.equals("0")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasConversion(File file) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty() || words[0].startsWith("#")) {
+                continue;
+            }
+            // The first word is the pattern, or the name of a macro being defined
+            for (int i = 1; i < words.length; i++) {
+                String word = words[i];
+                if (word.startsWith("-") || word.startsWith("!")) {
+                    // Unsetting an attribute never converts anything
+                    continue;
+                }
+                int equals = word.indexOf('=');
+                if (CONVERSIONS.contains(equals < 0 ? word : word.substring(0, equals))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBefore(long seconds, long nanoseconds, long modified) {
+        if (nanoseconds == 0) {
+            // Without nanoseconds, anything in the same second as the index is racy
+            return seconds < TimeUnit.NANOSECONDS.toSeconds(modified);
+        }
+        return TimeUnit.SECONDS.toNanos(seconds) + nanoseconds < modified;
+    }
+
+    private static File getGitDir(File root) throws IOException {
+        File git = new File(root, ".git");
+        if (git.isDirectory()) {
+            return git;
+        }
+        if (git.isFile()) {
+            // Linked work trees and submodules have a file pointing at the real git directory
+            String content = new String(Files.readAllBytes(git.toPath()), StandardCharsets.UTF_8).trim();
+            if (content.startsWith("gitdir:")) {
+                File directory = new File(content.substring("gitdir:".length()).trim());
+                if (!directory.isAbsolute()) {
+                    directory = new File(root, directory.getPath());
+                }
+                return directory.isDirectory() ? directory : null;
+            }
+        }
+        return null;
+    }
+
+    private static int readOffset(ByteBuffer buffer) {
+        int c = buffer.get() & 0xFF;
+        int value = c & 0x7F;
+        while ((c & 0x80) != 0) {
+            c = buffer.get() & 0xFF;
+            value = ((value + 1) << 7) | (c & 0x7F);
+        }
+        return value;
+    }
+
+    private static byte[] readString(ByteBuffer buffer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte b;
+        while ((b = buffer.get()) != 0) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Entry {
+
+        private final long seconds;
+        private final long nanoseconds;
+        private final long changedSeconds;
+        private final long changedNanoseconds;
+        private final long inode;
+        private final long size;
+        private final String digest;
+
+        private Entry(long seconds, long nanoseconds, long changedSeconds, long changedNanoseconds, long inode, long size, String digest) {
+            this.seconds = seconds;
+            this.nanoseconds = nanoseconds;
+            this.changedSeconds = changedSeconds;
+            this.changedNanoseconds = changedNanoseconds;
+            this.inode = inode;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches relative paths against sets of include and exclude globs, compiled together into a
+ * single automaton over the path's segments.
+ *
+ * <p>
+ * A glob is split on '/' into segments, where '**' matches any number of directories, and the
+ * other segments may use '*', '?', '[...]' and '{a,b}'. Every segment of every glob is a state of
+ * the automaton, so walking a path means stepping a set of states through its segments. Once a
+ * directory leaves no include states alive, or enters a trailing '**' of an exclude, nothing
+ * under it can match and the whole subtree can be skipped.
+ * </p>
+ */
+public class Glob {
+
+    /**
+     * Matches every path.
+     */
+    public static final Glob ALL = new Glob(Collections.singletonList("**"), Collections.<String>emptyList());
+
+    private static final String ANY = "**";
+
+    // Segments of every include then every exclude, laid out back to back
+    private final List<Segment> segments = new ArrayList<>();
+    // Where each glob ends, the states which accept a path
+    private final BitSet accepting = new BitSet();
+    // The trailing '**' states of excludes, which exclude everything under a directory
+    private final BitSet excluding = new BitSet();
+    private final BitSet excludes = new BitSet();
+    private final State start;
+
+    /**
+     * Creates a matcher for paths matching any of the includes and none of the excludes.
+     */
+    public Glob(List<String> includes, List<String> excludes) {
+        BitSet initial = new BitSet();
+        for (String include : includes) {
+            add(include, false, initial);
+        }
+        for (String exclude : excludes) {
+            add(exclude, true, initial);
+        }
+        start = new State(closure(initial));
+    }
+
+    /**
+     * Creates a matcher for paths matching any of the given globs.
+     */
+    public static Glob of(String... includes) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, includes);
+        return new Glob(list, Collections.<String>emptyList());
+    }
+
+    /**
+     * Gets the state before any segments, at the directory paths are relative to.
+     */
+    public State getStart() {
+        return start;
+    }
+
+    /**
+     * Checks if the given relative path, separated by '/', matches.
+     */
+    public boolean matches(String path) {
+        State state = start;
+        int begin = 0;
+        int end;
+        while ((end = path.indexOf('/', begin)) >= 0) {
+            state = state.enter(path.substring(begin, end));
+            if (state == null) {
+                return false;
+            }
+            begin = end + 1;
+        }
+        return state.matches(path.substring(begin));
+    }
+
+    private void add(String glob, boolean exclude, BitSet initial) {
+        String[] parts = glob.split("/");
+        int first = segments.size();
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            // Consecutive '**' are the same as one
+            if (part.equals(ANY) && segments.size() > first && segments.get(segments.size() - 1).any) {
+                continue;
+            }
+            if (exclude) {
+                excludes.set(segments.size());
+            }
+            segments.add(new Segment(part));
+        }
+        int last = segments.size();
+        if (last == first) {
+            return;
+        }
+        initial.set(first);
+        if (exclude) {
+            // The accepting state is past the end, so mark it as part of the exclude too
+            excludes.set(last);
+            if (segments.get(last - 1).any) {
+                excluding.set(last - 1);
+            }
+        }
+        accepting.set(last);
+        // Keep the globs apart with a state that never matches anything
+        segments.add(null);
+    }
+
+    private BitSet closure(BitSet states) {
+        // A '**' may match no directories at all, unless it is the last segment
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+            Segment segment = segments.get(i);
+            if (segment != null && segment.any && segments.get(i + 1) != null) {
+                states.set(i + 1);
+            }
+        }
+        return states;
+    }
+
+    private BitSet step(BitSet states, String name) {
+        BitSet next = new BitSet();
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+            Segment segment = segments.get(i);
+            if (segment == null) {
+                continue;
+            }
+            if (segment.any) {
+                next.set(i);
+                next.set(i + 1);
+            } else if (segment.matches(name)) {
+                next.set(i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    /**
+     * The set of states after the segments of a directory have been matched.
+     */
+    public final class State {
+
+        private final BitSet states;
+
+        private State(BitSet states) {
+            this.states = states;
+        }
+
+        /**
+         * Steps into the directory with the given name.
+         *
+         * @return the state inside the directory, or null if nothing under it can match.
+         */
+        public State enter(String name) {
+            BitSet next = step(states, name);
+            if (next.intersects(excluding)) {
+                return null;
+            }
+            // A glob which has ended can't match anything under the directory
+            next.andNot(accepting);
+            BitSet included = (BitSet) next.clone();
+            included.andNot(excludes);
+            return included.isEmpty() ? null : new State(next);
+        }
+
+        /**
+         * Checks if the file with the given name in this directory matches.
+         */
+        public boolean matches(String name) {
+            BitSet next = step(states, name);
+            if (!next.intersects(accepting)) {
+                return false;
+            }
+            BitSet excluded = (BitSet) next.clone();
+            excluded.and(excludes);
+            return !excluded.intersects(accepting);
+        }
+    }
+
+    private static final class Segment {
+
+        private final boolean any;
+        private final String literal;
+        private final Pattern pattern;
+
+        private Segment(String glob) {
+            any = glob.equals(ANY);
+            if (any || !hasWildcard(glob)) {
+                literal = glob;
+                pattern = null;
+            } else {
+                literal = null;
+                pattern = Pattern.compile(compile(glob));
+            }
+        }
+
+        private boolean matches(String name) {
+            return pattern == null ? literal.equals(name) : pattern.matcher(name).matches();
+        }
+
+        private static boolean hasWildcard(String glob) {
+            for (int i = 0; i < glob.length(); i++) {
+                if ("*?[{\\".indexOf(glob.charAt(i)) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String compile(String glob) {
+            StringBuilder sb = new StringBuilder();
+            boolean alternatives = false;
+            int length = glob.length();
+            for (int i = 0; i < length; i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    sb.append(".*");
+                } else if (c == '?') {
+                    sb.append('.');
+                } else if (c == '[') {
+                    int close = glob.indexOf(']', i + 2);
+                    if (close < 0) {
+                        sb.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, close);
+                        if (set.startsWith("!")) {
+                            set = "^" + set.substring(1);
+                        }
+                        sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                        i = close;
+                    }
+                } else if (c == '{' && !alternatives) {
+                    alternatives = true;
+                    sb.append("(?:");
+                } else if (c == '}' && alternatives) {
+                    alternatives = false;
+                    sb.append(')');
+                } else if (c == ',' && alternatives) {
+                    sb.append('|');
+                } else if (c == '\\' && i + 1 < length) {
+                    i++;
+                    sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            if (alternatives) {
+                // An unclosed brace is just a brace
+                return Pattern.quote(glob);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The dependencies between targets, recorded from the files they produce and consume while configuring.
+ *
+ * <p>
+ * A target is ready to build once every file it consumes from another target has been provided.
+ * </p>
+ */
+public class Graph {
+
+    private final Map<String, ITarget> producers = new HashMap<>();
+    private final Map<ITarget, Set<String>> outputs = new HashMap<>();
+    private final Map<ITarget, Set<String>> files = new HashMap<>();
+    private final Map<ITarget, List<List<String>>> properties = new HashMap<>();
+    private final Map<ITarget, Set<String>> inputs = new HashMap<>();
+    private final Map<ITarget, Set<ITarget>> dependencies = new LinkedHashMap<>();
+    private final Map<ITarget, Set<ITarget>> dependents = new HashMap<>();
+    private final Map<String, List<ITarget>> consumers = new HashMap<>();
+    private final Map<ITarget, Integer> pending = new HashMap<>();
+    private final Set<String> provided = new HashSet<>();
+    private final List<ITarget> order = new ArrayList<>();
+    private final Map<ITarget, Long> priorities = new HashMap<>();
+
+    /**
+     * Records that the given target produces the given file.
+     */
+    public synchronized void addProducer(ITarget target, String file) {
+        ITarget previous = producers.put(file, target);
+        if (previous != null) {
+            get(outputs, previous).remove(file);
+        }
+        get(outputs, target).add(file);
+        // Adding a file resets it, so it has to be provided again
+        provided.remove(file);
+    }
+
+    /**
+     * Records that the given target consumes the given file.
+     */
+    public synchronized void addFile(ITarget target, String file) {
+        get(files, target).add(file);
+    }
+
+    /**
+     * Records that the given target consumes the file named by the given property, or if there are
+     * alternatives, by the first of the given properties to be set.
+     */
+    public synchronized void addProperty(ITarget target, String... keys) {
+        List<List<String>> list = properties.get(target);
+        if (list == null) {
+            list = new ArrayList<>();
+            properties.put(target, list);
+        }
+        list.add(Arrays.asList(keys));
+    }
+
+    /**
+     * Links the given targets by the files they produce and consume.
+     *
+     * @return the targets in topological order.
+     */
+    public synchronized List<ITarget> build(IMatch match, List<ITarget> targets) {
+        for (ITarget target : targets) {
+            dependencies.put(target, new LinkedHashSet<ITarget>());
+            dependents.put(target, new LinkedHashSet<ITarget>());
+        }
+        for (ITarget target : targets) {
+            Set<String> set = new HashSet<>(get(files, target));
+            List<List<String>> alternatives = properties.get(target);
+            if (alternatives != null) {
+                for (List<String> keys : alternatives) {
+                    // Properties are all set by the end of configuration, so only the file they name matters
+                    for (String key : keys) {
+                        if (match.hasProperty(key)) {
+                            set.add(match.getProperty(key));
+                            break;
+                        }
+                    }
+                }
+            }
+            inputs.put(target, set);
+            int count = 0;
+            for (String file : set) {
+                ITarget producer = producers.get(file);
+                if (producer != null && producer != target && dependencies.containsKey(producer)) {
+                    dependencies.get(target).add(producer);
+                    dependents.get(producer).add(target);
+                    if (!provided.contains(file)) {
+                        List<ITarget> list = consumers.get(file);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            consumers.put(file, list);
+                        }
+                        list.add(target);
+                        count++;
+                    }
+                }
+            }
+            pending.put(target, count);
+        }
+        sort(match);
+        return order;
+    }
+
+    /**
+     * Ranks each target by the longest path from it to the end of the build, using the given
+     * durations, keyed by target name, of a previous build.
+     *
+     * <p>
+     * Targets which haven't been built before are assumed to take the average duration.
+     * </p>
+     */
+    public synchronized void prioritize(Map<String, Long> durations) {
+        long fallback = 1;
+        if (!durations.isEmpty()) {
+            long total = 0;
+            for (long duration : durations.values()) {
+                total += duration;
+            }
+            fallback = Math.max(1, total / durations.size());
+        }
+        // Dependents come after their dependencies, so walk backwards from the end of the build
+        for (int i = order.size() - 1; i >= 0; i--) {
+            ITarget target = order.get(i);
+            Long duration = durations.get(target.getName());
+            long longest = 0;
+            for (ITarget dependent : dependents.get(target)) {
+                longest = Math.max(longest, priorities.get(dependent));
+            }
+            priorities.put(target, (duration == null ? fallback : duration) + longest);
+        }
+    }
+
+    /**
+     * Gets the length of the longest path from the given target to the end of the build.
+     *
+     * @return the target's priority, higher values should be built first.
+     */
+    public synchronized long getPriority(ITarget target) {
+        Long priority = priorities.get(target);
+        return priority == null ? 0 : priority;
+    }
+
+    /**
+     * Gets the files the given target consumes, whether from other targets or the workspace.
+     *
+     * @return the target's input files.
+     */
+    public synchronized Set<String> getInputs(ITarget target) {
+        Set<String> set = inputs.get(target);
+        return set == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Gets the files the given target produces.
+     *
+     * @return the target's output files.
+     */
+    public synchronized Set<String> getOutputs(ITarget target) {
+        Set<String> set = outputs.get(target);
+        return set == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Gets the targets the given target consumes files from.
+     *
+     * @return the target's direct dependencies.
+     */
+    public synchronized Set<ITarget> getDependencies(ITarget target) {
+        return Collections.unmodifiableSet(dependencies.get(target));
+    }
+
+    /**
+     * Gets the targets which consume files from the given target.
+     *
+     * @return the target's direct dependents.
+     */
+    public synchronized Set<ITarget> getDependents(ITarget target) {
+        return Collections.unmodifiableSet(dependents.get(target));
+    }
+
+    /**
+     * Checks if all the files the given target consumes from other targets have been provided.
+     *
+     * @return true iff the target is ready to build.
+     */
+    public synchronized boolean isReady(ITarget target) {
+        Integer count = pending.get(target);
+        return count != null && count == 0;
+    }
+
+    /**
+     * Marks the given file as provided.
+     *
+     * @return the targets which became ready as a result.
+     */
+    public synchronized List<ITarget> provide(String file) {
+        List<ITarget> ready = new ArrayList<>();
+        if (provided.add(file)) {
+            List<ITarget> list = consumers.remove(file);
+            if (list != null) {
+                for (ITarget target : list) {
+                    int count = pending.get(target) - 1;
+                    pending.put(target, count);
+                    if (count == 0) {
+                        ready.add(target);
+                    }
+                }
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Marks the given target as finished, releasing any targets waiting on files it didn't provide.
+     *
+     * <p>
+     * The released targets will then fail when they await the missing files, rather than never starting.
+     * </p>
+     *
+     * @return the targets which became ready as a result.
+     */
+    public synchronized List<ITarget> finish(ITarget target) {
+        List<ITarget> ready = new ArrayList<>();
+        Set<String> set = outputs.get(target);
+        if (set != null) {
+            for (String file : set) {
+                ready.addAll(provide(file));
+            }
+        }
+        return ready;
+    }
+
+    private void sort(IMatch match) {
+        Map<ITarget, Integer> counts = new HashMap<>();
+        Queue<ITarget> queue = new ArrayDeque<>();
+        for (Map.Entry<ITarget, Set<ITarget>> entry : dependencies.entrySet()) {
+            int count = entry.getValue().size();
+            counts.put(entry.getKey(), count);
+            if (count == 0) {
+                queue.add(entry.getKey());
+            }
+        }
+        while (!queue.isEmpty()) {
+            ITarget target = queue.remove();
+            order.add(target);
+            for (ITarget dependent : dependents.get(target)) {
+                int count = counts.get(dependent) - 1;
+                counts.put(dependent, count);
+                if (count == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        if (order.size() != dependencies.size()) {
+            List<ITarget> cycle = new ArrayList<>();
+            for (ITarget target : dependencies.keySet()) {
+                if (!order.contains(target)) {
+                    cycle.add(target);
+                }
+            }
+            match.error("dependency cycle between " + cycle);
+        }
+    }
+
+    private static Set<String> get(Map<ITarget, Set<String>> map, ITarget target) {
+        Set<String> set = map.get(target);
+        if (set == null) {
+            set = new HashSet<>();
+            map.put(target, set);
+        }
+        return set;
+    }
+}
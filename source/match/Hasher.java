@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the digests used to tell whether files have changed.
+ *
+ * <p>
+ * A file's digest is the SHA-1 of its contents in the same form as a git blob id, so it can be
+ * checked against `git hash-object`, and taken from the git index for files which haven't changed.
+ * </p>
+ *
+ * <p>
+ * Given a stat cache, a file is only read if it has changed since a previous build hashed it, so
+ * hashing scales with the bytes which changed rather than with every byte of every input.
+ * </p>
+ */
+public class Hasher {
+
+    public static final String MISSING = "missing";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final GitIndex index;
+    private final StatCache stats;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    /**
+     * Creates a hasher which reads every file it hashes.
+     */
+    public Hasher() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a hasher which takes the digests of unchanged files from the given stat cache, then
+     * the given git index, either of which may be null.
+     */
+    public Hasher(GitIndex index, StatCache stats) {
+        this.index = index;
+        this.stats = stats;
+    }
+
+    /**
+     * Computes the digest of the given file.
+     *
+     * <p>
+     * A directory's digest covers the names and digests of everything under it.
+     * </p>
+     *
+     * @return the digest, or MISSING if the file doesn't exist.
+     */
+    public String hash(File file) throws Exception {
+        if (file.isDirectory()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            String[] names = file.list();
+            Arrays.sort(names);
+            for (String name : names) {
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(hash(new File(file, name)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return toHex(digest.digest());
+        }
+        if (!file.isFile()) {
+            return MISSING;
+        }
+        StatCache.Stat stat = stats == null ? null : stats.stat(file);
+        String path = stat == null ? null : file.toPath().normalize().toAbsolutePath().toString();
+        if (stat != null) {
+            String digest = stats.get(path, stat);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        String digest = index == null ? null : index.getDigest(file);
+        if (digest == null) {
+            digest = read(file);
+            reads.incrementAndGet();
+        }
+        if (stat != null) {
+            stats.put(path, stat, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Gets the number of files which have had to be read to hash them.
+     */
+    public int getReadCount() {
+        return reads.get();
+    }
+
+    /**
+     * Computes the digest of the given string.
+     */
+    public static String hash(String string) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return toHex(digest.digest(string.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String read(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update(String.format("blob %d\0", file.length()).getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts the given bytes into a hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
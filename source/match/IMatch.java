@@ -18,6 +18,9 @@ package match;
 
 import java.io.File;
 
+import match.cache.ActionCache;
+import match.java.Javac;
+
 public interface IMatch {
 
     /**
@@ -55,6 +58,48 @@ public interface IMatch {
      */
     boolean isVerbose();
 
+    /**
+     * Gets the hasher for computing file digests, shared so each file is only read when it changes.
+     *
+     * @return the hasher, or null if files should be hashed by a new hasher.
+     */
+    Hasher getHasher();
+
+    /**
+     * Gets the database recording what each target was built from.
+     *
+     * @return the database, or null if targets should always be built.
+     */
+    Database getDatabase();
+
+    /**
+     * Gets the cache of target outputs, keyed by the fingerprint of the target's action.
+     *
+     * @return the cache, or null if outputs shouldn't be cached.
+     */
+    ActionCache getCache();
+
+    /**
+     * Gets the compiler for building Java source code inside the JVM.
+     *
+     * @return the compiler, or null if Java source code should be compiled by running javac.
+     */
+    Javac getCompiler();
+
+    /**
+     * Gets the rules for which files under the root directory the build should never look at.
+     *
+     * @return the ignore rules, or null if nothing is ignored.
+     */
+    Ignore getIgnore();
+
+    /**
+     * Gets the index of the files found in the workspace and in the directories added to the build.
+     *
+     * @return the file tree, or null if directories have to be listed from disk.
+     */
+    FileTree getFileTree();
+
     /**
      * Checks if the property has been set.
      *
@@ -92,11 +137,32 @@ public interface IMatch {
      */
     void error(Exception exception);
 
+    /**
+     * Waits until another child process can be started.
+     */
+    void startProcess();
+
+    /**
+     * Called when a child process has finished, allowing another to start.
+     */
+    void endProcess();
+
     /**
      * Adds the given file to the target's output.
      */
     void addFile(String file);
 
+    /**
+     * Records that the target being configured reads the given file.
+     */
+    void requireFile(String file);
+
+    /**
+     * Records that the target being configured reads the file named by the given property, or if
+     * there are alternatives, by the first of the given properties to be set.
+     */
+    void requireProperty(String... keys);
+
     /**
      * Adds the directory and it's children to the target's output.
      */
@@ -113,6 +179,10 @@ public interface IMatch {
 
     /**
      * Waits until the given file has been created.
+     *
+     * <p>
+     * Files in the workspace which no target produces are available straight away.
+     * </p>
      */
     void awaitFile(String file);
 }
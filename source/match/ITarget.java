@@ -17,6 +17,7 @@
 package match;
 
 import java.io.File;
+import java.util.List;
 
 import match.expression.function.IFunction;
 
@@ -53,6 +54,13 @@ public interface ITarget {
      */
     void setFunction(IFunction function);
 
+    /**
+     * Gets the function that will build this target.
+     *
+     * @return the target's function.
+     */
+    IFunction getFunction();
+
     /**
      * Set up the environment to build this target.
      */
@@ -70,11 +78,25 @@ public interface ITarget {
      */
     boolean isBuilt();
 
+    /**
+     * Gets how long the target's function took to run when it was built, in milliseconds.
+     *
+     * @return the duration, or -1 if the function didn't run, as the target was up to date or
+     *         restored from the cache.
+     */
+    long getDuration();
+
     /**
      * Runs the given command in the target's enclosing directory and returns the exit code.
      */
     int runCommand(String command);
 
+    /**
+     * Records a command which was carried out inside the JVM rather than run, so it is reported
+     * the same way as the commands that are run.
+     */
+    void recordCommand(String command);
+
     /**
      * Gets the most recent command executed by this target.
      *
@@ -82,4 +104,11 @@ public interface ITarget {
      */
     String getLastCommand();
 
+    /**
+     * Gets all the commands executed by this target.
+     *
+     * @return the commands run, in order.
+     */
+    List<String> getCommands();
+
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * The files under the root directory which the build should never look at, such as vendored SDKs,
+ * IDE caches and node_modules, so they aren't even listed.
+ *
+ * <p>
+ * Any directory can have a .matchignore file with the same syntax as a .gitignore, applying to
+ * everything under that directory. Rules in deeper files take precedence, and later rules in a
+ * file take precedence over earlier ones. Each file is read and compiled once, the first time
+ * something in its directory is checked.
+ * </p>
+ *
+ * <p>
+ * Hidden files and the out directory at the root are ignored by default, but can be brought back
+ * with a negated rule in the root .matchignore.
+ * </p>
+ */
+public class Ignore {
+
+    public static final String FILE = ".matchignore";
+
+    private static final List<String> DEFAULTS = Arrays.asList("/.*", "/out/");
+
+    private final Path root;
+    private final ConcurrentMap<Path, List<Rule>> rules = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the ignore rules for the given root directory.
+     */
+    public Ignore(Path root) {
+        this.root = root.normalize().toAbsolutePath();
+    }
+
+    /**
+     * Checks if the given file should be ignored, assuming the directories above it aren't.
+     *
+     * <p>
+     * This is the check to make while walking, where ignored directories are never walked into.
+     * </p>
+     *
+     * @return true iff the file is under the root directory and ignored.
+     */
+    public boolean isIgnored(Path path, boolean directory) {
+        path = path.normalize().toAbsolutePath();
+        if (!path.startsWith(root) || path.equals(root)) {
+            return false;
+        }
+        // The deepest file with a rule for the path decides
+        for (Path parent = path.getParent(); parent.startsWith(root); parent = parent.getParent()) {
+            String relative = parent.relativize(path).toString().replace(File.separatorChar, '/');
+            List<Rule> list = getRules(parent);
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Rule rule = list.get(i);
+                if (rule.matches(relative, directory)) {
+                    return !rule.negated;
+                }
+            }
+            if (parent.equals(root)) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the given file, or any directory above it, should be ignored.
+     *
+     * @return true iff the file is under the root directory and ignored.
+     */
+    public boolean isExcluded(Path path) {
+        path = path.normalize().toAbsolutePath();
+        if (!path.startsWith(root) || path.equals(root)) {
+            return false;
+        }
+        Path current = root;
+        for (Path name : root.relativize(path)) {
+            current = current.resolve(name);
+            boolean directory = !current.equals(path) || Files.isDirectory(current);
+            if (isIgnored(current, directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Rule> getRules(Path directory) {
+        List<Rule> list = rules.get(directory);
+        if (list == null) {
+            list = load(directory);
+            List<Rule> existing = rules.putIfAbsent(directory, list);
+            if (existing != null) {
+                list = existing;
+            }
+        }
+        return list;
+    }
+
+    private List<Rule> load(Path directory) {
+        List<String> lines = new ArrayList<>();
+        if (directory.equals(root)) {
+            lines.addAll(DEFAULTS);
+        }
+        Path file = directory.resolve(FILE);
+        if (Files.isRegularFile(file)) {
+            try {
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        List<Rule> list = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule != null) {
+                list.add(rule);
+            }
+        }
+        return list.isEmpty() ? Collections.<Rule>emptyList() : list;
+    }
+
+    /**
+     * A single line of an ignore file, compiled into a pattern over paths relative to the file's directory.
+     */
+    static class Rule {
+
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+
+        boolean matches(String path, boolean directory) {
+            return (directory || !directoryOnly) && pattern.matcher(path).matches();
+        }
+
+        /**
+         * Parses the given line of an ignore file.
+         *
+         * @return the rule, or null if the line is blank or a comment.
+         */
+        static Rule parse(String line) {
+            // Trailing spaces are ignored unless escaped
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+                end--;
+            }
+            line = line.substring(0, end);
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            boolean negated = line.startsWith("!");
+            if (negated) {
+                line = line.substring(1);
+            }
+            boolean directoryOnly = line.endsWith("/");
+            if (directoryOnly) {
+                line = line.substring(0, line.length() - 1);
+            }
+            // A pattern with a slash anywhere but the end is relative to the file's directory, otherwise it matches at any depth
+            boolean anchored = line.contains("/");
+            if (line.startsWith("/")) {
+                line = line.substring(1);
+            }
+            if (line.isEmpty()) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            if (!anchored) {
+                sb.append("(?:.*/)?");
+            }
+            compile(line, sb);
+            return new Rule(Pattern.compile(sb.toString()), negated, directoryOnly);
+        }
+
+        private static void compile(String glob, StringBuilder sb) {
+            int length = glob.length();
+            for (int i = 0; i < length; i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    boolean start = i == 0 || glob.charAt(i - 1) == '/';
+                    if (i + 1 < length && glob.charAt(i + 1) == '*' && start
+                            && (i + 2 == length || glob.charAt(i + 2) == '/')) {
+                        if (i + 2 == length) {
+                            // Trailing ** matches everything inside
+                            sb.append(".*");
+                        } else {
+                            // Leading or middle **/ matches zero or more directories
+                            sb.append("(?:.*/)?");
+                        }
+                        i += 2;
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                } else if (c == '[') {
+                    int close = glob.indexOf(']', i + 2);
+                    if (close < 0) {
+                        sb.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, close);
+                        if (set.startsWith("!")) {
+                            set = "^" + set.substring(1);
+                        }
+                        sb.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                        i = close;
+                    }
+                } else if (c == '\\' && i + 1 < length) {
+                    i++;
+                    sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+        }
+    }
+}
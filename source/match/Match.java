@@ -19,24 +19,40 @@ package match;
 import config.Config;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import match.cache.ActionCache;
+import match.cache.ICache;
+import match.cache.LayeredCache;
+import match.cache.LocalCache;
+import match.cache.RemoteCache;
 import match.frontend.Category;
 import match.frontend.Lexem;
 import match.frontend.Lexer;
 import match.frontend.Parser;
+import match.java.Javac;
 
 /**
  * A lightweight, fast and extensible build system.
@@ -45,6 +61,12 @@ public class Match implements IMatch {
 
     public static final String MATCH = "match";
 
+    public static final String DURATIONS = "out/match/durations";
+
+    public static final String SNAPSHOT = "out/match/snapshot";
+
+    public static final String STATS = "out/match/stats";
+
     public static final int ERROR = -1;
 
     public static final List<Lexem> LEXEMS = Arrays.asList(
@@ -67,9 +89,21 @@ public class Match implements IMatch {
     private final boolean clean;
     private final boolean quiet;
     private final boolean verbose;
-    private final Map<String, CountDownLatch> files = new ConcurrentHashMap<>();
+    private final Graph graph = new Graph();
+    private final Scheduler scheduler;
+    private final Semaphore processes;
+    private final StatCache stats = new StatCache();
+    private final Hasher hasher;
+    private final Database database;
+    private final ActionCache cache;
+    private final Javac compiler;
+    private final Ignore ignore;
+    private ITarget configuring;
+    private final PathTable paths = new PathTable();
+    private final FileIndex files = new FileIndex(paths);
     private final List<File> matchFiles = new ArrayList<>();
-    private final List<File> allFiles = new ArrayList<>();
+    // The files found when scanning the workspace, which are only registered when used
+    private final FileTree tree = new FileTree(paths);
 
     /**
      * Creates a new Match instance with the given config.
@@ -81,9 +115,35 @@ public class Match implements IMatch {
         clean = config.getBoolean("clean");
         quiet = config.getBoolean("quiet");
         verbose = config.getBoolean("verbose");
+        int jobs = Runtime.getRuntime().availableProcessors();
+        if (config.has("jobs")) {
+            jobs = (int) config.getNumber("jobs");
+        }
+        scheduler = new Scheduler(this, graph, jobs, config.getBoolean("virtual-threads"));
+        int maxProcesses = jobs;
+        if (config.has("max-processes")) {
+            maxProcesses = (int) config.getNumber("max-processes");
+        }
+        processes = new Semaphore(maxProcesses);
+        if (!clean) {
+            try {
+                stats.load(new File(root, STATS));
+            } catch (IOException e) {
+                warn("couldn't load file stats: " + e.getMessage());
+            }
+        }
+        hasher = new Hasher(GitIndex.load(root), stats);
+        database = clean ? null : new Database(this, graph, hasher, new File(root, Database.DATABASE));
+        File cacheDir = config.has("cache") ? new File(config.get("cache")) : new File(libraries, "cache");
+        ICache backend = new LocalCache(cacheDir);
+        if (config.has("remote-cache")) {
+            backend = new LayeredCache(backend, new RemoteCache(this, config.get("remote-cache")));
+        }
+        cache = clean ? null : new ActionCache(this, database, backend);
+        // The JVM may not include a compiler, in which case javac has to be run instead
+        compiler = config.getBoolean("fork-javac") ? null : Javac.create();
+        ignore = new Ignore(root.toPath());
         // TODO exec targets to allow supporting custom commands, or add AndroidGradle and AndroidAnt functions to build with gradle or ant resp.
-        // TODO parallel builds
-        // TODO incremental builds
         // TODO building select targets vs all
         // TODO function to create distributions
     }
@@ -128,8 +188,60 @@ public class Match implements IMatch {
         return verbose;
     }
 
-    List<File> getAllFiles() {
-        return allFiles;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Hasher getHasher() {
+        return hasher;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ActionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Javac getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Ignore getIgnore() {
+        return ignore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FileTree getFileTree() {
+        return tree;
+    }
+
+    List<File> getMatchFiles() {
+        return matchFiles;
+    }
+
+    FileIndex getFileIndex() {
+        return files;
     }
 
     /**
@@ -160,12 +272,54 @@ public class Match implements IMatch {
         config.put(key, value);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void startProcess() {
+        processes.acquireUninterruptibly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endProcess() {
+        processes.release();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void addFile(String file) {
-        files.put(file, new CountDownLatch(1));
+        files.add(file);
+        if (configuring != null) {
+            graph.addProducer(configuring, file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requireFile(String file) {
+        if (configuring != null) {
+            graph.addFile(configuring, file);
+        }
+        if (!files.contains(file)) {
+            lookup(file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requireProperty(String... keys) {
+        if (configuring != null) {
+            graph.addProperty(configuring, keys);
+        }
     }
 
     /**
@@ -173,12 +327,25 @@ public class Match implements IMatch {
      */
     @Override
     public void addDirectory(File directory) {
-        for (File child : directory.listFiles()) {
-            if (child.isDirectory()) {
-                addDirectory(child);
-            } else {
-                addScannedFile(child);
-            }
+        Path start = directory.toPath().normalize().toAbsolutePath();
+        tree.add(paths.add(start.toString()), true);
+        ITarget target = scheduler.getCurrentTarget();
+        if (target != null && database != null) {
+            database.addDirectory(target, start.toString());
+        }
+        try {
+            new Walker(paths).walk(start, new Walker.IVisitor() {
+                @Override
+                public boolean visit(Path path, int id, BasicFileAttributes attributes) {
+                    tree.add(id, attributes.isDirectory());
+                    if (!attributes.isDirectory()) {
+                        files.addProvided(id);
+                    }
+                    return true;
+                }
+            });
+        } catch (IOException e) {
+            error(e);
         }
     }
 
@@ -194,18 +361,14 @@ public class Match implements IMatch {
         if (file.isDirectory()) {
             error(String.format("provideFile called with directory %s", filename));
         }
-        CountDownLatch latch = files.get(filename);
-        if (latch == null) {
-            /*
-            for (String f : files.keySet()) {
-                System.out.println("File " + f);
-            }
-            for (StackTraceElement e : Thread.currentThread().getStackTrace()) {
-                System.out.println("Stack " + e);
-            }*/
+        if (!files.provide(filename)) {
             error(String.format("provideFile called before addFile for %s", filename));
         }
-        latch.countDown();
+        ITarget target = scheduler.getCurrentTarget();
+        if (target != null && database != null) {
+            database.addOutput(target, filename);
+        }
+        scheduler.provide(filename);
     }
 
     /**
@@ -213,15 +376,11 @@ public class Match implements IMatch {
      */
     @Override
     public void awaitFile(String file) {
-        CountDownLatch latch = files.get(file);
-        if (latch == null) {
-            /*
-            for (String f : files.keySet()) {
-                System.out.println("File " + f);
+        Future<Void> future = files.await(file);
+        if (future == null) {
+            if (lookup(file)) {
+                return;
             }
-            for (StackTraceElement e : Thread.currentThread().getStackTrace()) {
-                System.out.println("Stack " + e);
-            }*/
             error(String.format("no targets provided %s", file));
         }
         try {
@@ -229,48 +388,103 @@ public class Match implements IMatch {
             if (config.has("max-wait-time")) {
                 maxWaitTimeMins = (long) config.getNumber("max-wait-time");
             }
-            if (!latch.await(maxWaitTimeMins, TimeUnit.MINUTES)) {
-                error(file + " took too long (> " + maxWaitTimeMins + "mins)");
+            if (!future.isDone()) {
+                // Free up this target's slot while it waits
+                scheduler.block();
+                try {
+                    future.get(maxWaitTimeMins, TimeUnit.MINUTES);
+                } catch (TimeoutException e) {
+                    error(file + " took too long (> " + maxWaitTimeMins + "mins)");
+                } finally {
+                    scheduler.unblock();
+                }
             }
         } catch (InterruptedException e) {
             error("await interrupted");
+        } catch (ExecutionException e) {
+            error(e);
         }
     }
 
-    private void scanRoot(File root) {
-        for (File child : root.listFiles()) {
-            String name = child.getName();
-            if (!name.matches("\\..*") && !name.equals("out")) {
-                if (child.isDirectory()) {
-                    loadFiles(child);
-                } else {
-                    addScannedFile(child);
-                }
-            }
+    /**
+     * Registers the given file as provided if it is a file in the workspace, rather than an output
+     * of the build.
+     *
+     * <p>
+     * Workspace files are only registered once something refers to them, so only the files the
+     * build actually reads are tracked.
+     * </p>
+     *
+     * @return true iff the file is in the workspace.
+     */
+    private boolean lookup(String file) {
+        int id = paths.getId(file);
+        if (id != PathTable.MISSING && tree.isFile(id)) {
+            files.addProvided(id);
+            return true;
+        }
+        // The file may have been created since the workspace was scanned
+        Path path = Paths.get(file);
+        Path directory = root.toPath().normalize().toAbsolutePath();
+        if (!path.startsWith(directory) || path.equals(directory)) {
+            return false;
+        }
+        if (ignore.isExcluded(path) || !Files.isRegularFile(path)) {
+            return false;
         }
+        files.addProvided(paths.add(file));
+        return true;
     }
 
-    private void loadFiles(File directory) {
-        for (File child : directory.listFiles()) {
-            if (child.isDirectory()) {
-                loadFiles(child);
-            } else {
-                addScannedFile(child);
+    private void scan() {
+        final Path directory = root.toPath().normalize().toAbsolutePath();
+        tree.add(paths.add(directory.toString()), true);
+        Snapshot snapshot = new Snapshot(paths);
+        File file = new File(root, SNAPSHOT);
+        if (!clean) {
+            try {
+                snapshot.load(file, directory);
+            } catch (IOException e) {
+                warn("couldn't load workspace snapshot: " + e.getMessage());
             }
         }
-    }
-
-    private void addScannedFile(File file) {
-        allFiles.add(file);
-        if (file.getName().equals(MATCH)) {
-            matchFiles.add(file);
+        try {
+            new Walker(paths, ForkJoinPool.commonPool(), snapshot).walk(directory, new Walker.IVisitor() {
+                @Override
+                public boolean visit(Path path, int id, BasicFileAttributes attributes) {
+                    if (ignore.isIgnored(path, attributes.isDirectory())) {
+                        return false;
+                    }
+                    if (attributes.isDirectory() || attributes.isRegularFile()) {
+                        tree.add(id, attributes.isDirectory());
+                    }
+                    if (attributes.isRegularFile() && path.getFileName().toString().equals(MATCH)) {
+                        synchronized (matchFiles) {
+                            matchFiles.add(path.toFile());
+                        }
+                    }
+                    return true;
+                }
+            });
+        } catch (IOException e) {
+            error(e);
         }
+        try {
+            snapshot.save(file, directory);
+        } catch (IOException e) {
+            warn("couldn't save workspace snapshot: " + e.getMessage());
+        }
+        if (verbose) {
+            println(String.format("Listed %d directories, reused %d", snapshot.getListedCount(), snapshot.getReusedCount()));
+        }
+        // The walk is in parallel, so sort to parse the match files in the same order every time
+        Collections.sort(matchFiles);
     }
 
     void light() {
         long start = System.currentTimeMillis();
         println("Scanning");
-        scanRoot(root);
+        scan();
         println("Matches: " + matchFiles);
         println("Parsing");
         List<ITarget> targets = new ArrayList<ITarget>();
@@ -281,30 +495,25 @@ public class Match implements IMatch {
         }
         println("Targets: " + targets);
         println("Configuring");
-        // Create a thread for each target, but only start a thread if the number of targets that
-        // aren't blocked is under MAX_THREADS. If all targets are blocked there is a deadlock.
-        for (File file : allFiles) {
-            addFile(file.toPath().normalize().toAbsolutePath().toString());
-            provideFile(file);
-        }
         for (ITarget target : targets) {
+            configuring = target;
             try {
                 target.configure();
             } catch (Exception e) {
                 error(target.getName() + " failed to configure: " + e.getMessage());
             }
         }
+        configuring = null;
+        List<ITarget> order = graph.build(this, targets);
+        Map<String, Long> durations = loadDurations();
+        graph.prioritize(durations);
         println("Building");
-        CountDownLatch latch = new CountDownLatch(targets.size());
-        for (ITarget target : targets) {
-            new BuildThread(target, latch).start();
-        }
         try {
             long maxBuildTimeMins = 5;// 5 minutes
             if (config.has("max-build-time")) {
                 maxBuildTimeMins = (long) config.getNumber("max-build-time");
             }
-            if (!latch.await(maxBuildTimeMins, TimeUnit.MINUTES)) {
+            if (!scheduler.build(order, maxBuildTimeMins, TimeUnit.MINUTES)) {
                 for (ITarget target : targets) {
                     if (!target.isBuilt()) {
                         println(target + " still running " + target.getLastCommand());
@@ -315,6 +524,23 @@ public class Match implements IMatch {
         } catch (InterruptedException e) {
             error("build interrupted");
         }
+        durations.putAll(scheduler.getDurations());
+        saveDurations(durations);
+        try {
+            stats.save(new File(root, STATS));
+        } catch (IOException e) {
+            warn("couldn't save file stats: " + e.getMessage());
+        }
+        if (verbose) {
+            println(String.format("Hashed %d files, reused %d digests", hasher.getReadCount(), stats.getHitCount()));
+        }
+        if (cache != null) {
+            try {
+                cache.flush();
+            } catch (Exception e) {
+                warn("couldn't finish uploading to cache: " + e.getMessage());
+            }
+        }
         long delta = (System.currentTimeMillis() - start) / 1000;
         long hours = delta / 3600;
         long minutes = (delta % 3600) / 60;
@@ -328,17 +554,40 @@ public class Match implements IMatch {
             message = String.format("Done %ds", seconds);
         }
         println(message);
-        // Create a thread for each target, but only start a thread if the number of targets that
-        // aren't blocked is under MAX_THREADS. If all targets are blocked there is a deadlock.
         // Look at the output files of a target and all the files under the output directory,
         // delete files that were created in the last build but is no longer made by any targets.
         // This means all targets have to know their output files even if they dont need to build.
-        // This is difficult for java compiles because you cannot know beforehand, given source
-        // files, which classes will get generated because of inner/anonymous classes.
+        // Java compiles already clean up after themselves, as the incremental compiler records
+        // which classes, including inner/anonymous classes, each source file generated.
         // Could maybe be done by a target - it just gets built last.
         // TODO if (isCleaning()) delete all generated files
     }
 
+    private Map<String, Long> loadDurations() {
+        Map<String, Long> durations = new HashMap<>();
+        try {
+            Properties properties = Utilities.readProperties(new File(root, DURATIONS));
+            for (String name : properties.stringPropertyNames()) {
+                durations.put(name, Long.parseLong(properties.getProperty(name)));
+            }
+        } catch (Exception e) {
+            warn("couldn't load target durations: " + e.getMessage());
+        }
+        return durations;
+    }
+
+    private void saveDurations(Map<String, Long> durations) {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        try {
+            Utilities.writeProperties(properties, new File(root, DURATIONS));
+        } catch (Exception e) {
+            warn("couldn't save target durations: " + e.getMessage());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -384,24 +633,4 @@ public class Match implements IMatch {
         Match match = new Match(Config.create(args, files));
         match.light();
     }
-
-    private static class BuildThread extends Thread {
-
-        private final ITarget target;
-        private final CountDownLatch latch;
-
-        private BuildThread(ITarget target, CountDownLatch latch) {
-            this.target = target;
-            this.latch = latch;
-        }
-
-        @Override
-        public void run() {
-            try {
-                target.build();
-            } finally {
-                latch.countDown();
-            }
-        }
-    }
 }
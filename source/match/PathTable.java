@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Interns paths as a tree of name segments, giving each path an integer id.
+ *
+ * <p>
+ * A path is stored as the id of its parent and its last segment, and each distinct segment is
+ * stored once, so the memory used grows with the number of unique segments and paths rather than
+ * with the total length of the paths. The children of each path are found through an open
+ * addressed hash table of primitive keys, packing the parent and segment ids into a long, so each
+ * path costs a few array slots rather than a boxed map entry.
+ * </p>
+ *
+ * <p>
+ * The table is safe to use from many threads without locking, so a parallel walk can add paths
+ * from every thread at once. Segments are interned in a concurrent map, and each new path takes
+ * the next id from a counter and stores its parent and segment in arrays which grow by whole
+ * chunks, so existing entries never move. Looking a child up never locks. The hash table is split
+ * into stripes, and only adding a child locks its stripe, as does adding a chunk.
+ * </p>
+ */
+public class PathTable {
+
+    // The empty path, the parent of every path's first segment
+    public static final int ROOT = 0;
+    public static final int MISSING = -1;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPE_SIZE = 16;
+
+    private final char separator;
+    private final ConcurrentMap<String, Segment> segments = new ConcurrentHashMap<>();
+    private final AtomicInteger segmentCount = new AtomicInteger();
+    // Maps parent and segment ids to the child's id, picking the stripe by the top bits of the hash
+    private final Stripe[] children = new Stripe[1 << STRIPE_BITS];
+    private final AtomicInteger count = new AtomicInteger(1);
+    // Replaced rather than changed when a chunk is added, so reading them needs no lock
+    private volatile int[][] parents = new int[1][];
+    private volatile Segment[][] names = new Segment[1][];
+
+    /**
+     * Creates a table for paths using the platform's separator.
+     */
+    public PathTable() {
+        this(File.separatorChar);
+    }
+
+    /**
+     * Creates a table for paths using the given separator.
+     */
+    public PathTable(char separator) {
+        this.separator = separator;
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new Stripe();
+        }
+        store(ROOT, MISSING, null);
+    }
+
+    /**
+     * Adds the given path, along with each of its parents.
+     *
+     * @return the path's id.
+     */
+    public int add(String path) {
+        int id = ROOT;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf(separator, start);
+            String segment = path.substring(start, end < 0 ? path.length() : end);
+            id = addChild(id, intern(segment));
+            if (end < 0) {
+                return id;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds the child with the given name to the path with the given id.
+     *
+     * @return the child's id.
+     */
+    public int add(int parent, String name) {
+        return addChild(parent, intern(name));
+    }
+
+    /**
+     * Gets the id of the given path.
+     *
+     * @return the id, or MISSING if the path hasn't been added.
+     */
+    public int getId(String path) {
+        int id = ROOT;
+        int start = 0;
+        while (id != MISSING) {
+            int end = path.indexOf(separator, start);
+            Segment segment = segments.get(path.substring(start, end < 0 ? path.length() : end));
+            if (segment == null) {
+                return MISSING;
+            }
+            long key = key(id, segment.id);
+            id = getStripe(key).table.get(key);
+            if (end < 0) {
+                return id;
+            }
+            start = end + 1;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Gets the path with the given id.
+     */
+    public String getPath(int id) {
+        if (id == ROOT) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        append(sb, id);
+        return sb.toString();
+    }
+
+    /**
+     * Gets the id of the parent of the path with the given id.
+     *
+     * @return the parent's id, or ROOT for a path with a single segment.
+     */
+    public int getParent(int id) {
+        return parents[id >>> CHUNK_BITS][id & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the last segment of the path with the given id.
+     */
+    public String getName(int id) {
+        return id == ROOT ? "" : getSegment(id).name;
+    }
+
+    /**
+     * Gets the number of paths, including every parent and the empty root path.
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Gets the number of distinct segments.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private Segment getSegment(int id) {
+        return names[id >>> CHUNK_BITS][id & CHUNK_MASK];
+    }
+
+    private void append(StringBuilder sb, int id) {
+        int parent = getParent(id);
+        if (parent != ROOT) {
+            append(sb, parent);
+            sb.append(separator);
+        }
+        sb.append(getSegment(id).name);
+    }
+
+    private Segment intern(String name) {
+        Segment segment = segments.get(name);
+        if (segment == null) {
+            segment = segments.computeIfAbsent(name, new Function<String, Segment>() {
+                @Override
+                public Segment apply(String key) {
+                    return new Segment(key, segmentCount.getAndIncrement());
+                }
+            });
+        }
+        return segment;
+    }
+
+    private int addChild(int parent, Segment name) {
+        long key = key(parent, name.id);
+        Stripe stripe = getStripe(key);
+        int child = stripe.table.get(key);
+        if (child == MISSING) {
+            synchronized (stripe) {
+                child = stripe.table.get(key);
+                if (child == MISSING) {
+                    // The child is stored before its id is published, so anyone who sees the id sees it
+                    child = count.getAndIncrement();
+                    store(child, parent, name);
+                    stripe.put(key, child);
+                }
+            }
+        }
+        return child;
+    }
+
+    private Stripe getStripe(long key) {
+        return children[hash(key) >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    private void store(int id, int parent, Segment name) {
+        int chunk = id >>> CHUNK_BITS;
+        if (chunk >= parents.length || parents[chunk] == null) {
+            addChunk(chunk);
+        }
+        parents[chunk][id & CHUNK_MASK] = parent;
+        names[chunk][id & CHUNK_MASK] = name;
+    }
+
+    private synchronized void addChunk(int chunk) {
+        if (chunk < parents.length && parents[chunk] != null) {
+            return;
+        }
+        int length = Math.max(parents.length, chunk + 1);
+        int[][] newParents = new int[length][];
+        Segment[][] newNames = new Segment[length][];
+        System.arraycopy(parents, 0, newParents, 0, parents.length);
+        System.arraycopy(names, 0, newNames, 0, names.length);
+        // Ids are handed out in order, so every earlier chunk exists unless it is being added too
+        for (int i = 0; i < length; i++) {
+            if (newParents[i] == null) {
+                newParents[i] = new int[CHUNK_SIZE];
+                newNames[i] = new Segment[CHUNK_SIZE];
+            }
+        }
+        // The names go first, so a reader seeing the new parents also sees the new names
+        names = newNames;
+        parents = newParents;
+    }
+
+    private static long key(int parent, int name) {
+        // Offset by one so no key is zero, which marks an empty slot
+        return (((long) parent << 32) | (name & 0xFFFFFFFFL)) + 1;
+    }
+
+    private static int hash(long key) {
+        // The finalizer of MurmurHash3, so the ids' low bits spread over the whole hash
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * A part of the children hash table, growing on its own.
+     */
+    private static final class Stripe {
+
+        // Replaced rather than changed when it grows, so reading it needs no lock
+        private volatile Table table = new Table(STRIPE_SIZE);
+        private int size;
+
+        /**
+         * Adds the given key, which mustn't be in the table, while holding the stripe's lock.
+         */
+        private void put(long key, int value) {
+            Table current = table;
+            size++;
+            // Keep the table at most three quarters full, so probes stay short
+            if (size * 4 > current.keys.length() * 3) {
+                Table grown = new Table(current.keys.length() * 2);
+                for (int i = 0; i < current.keys.length(); i++) {
+                    long k = current.keys.get(i);
+                    if (k != 0) {
+                        grown.put(k, current.values.get(i));
+                    }
+                }
+                grown.put(key, value);
+                table = grown;
+            } else {
+                current.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * An open addressed table of keys to ids, probing linearly.
+     */
+    private static final class Table {
+
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray values;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+
+        private int get(long key) {
+            int slot = hash(key) & mask;
+            while (true) {
+                long k = keys.get(slot);
+                if (k == key) {
+                    return values.get(slot);
+                }
+                if (k == 0) {
+                    return MISSING;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void put(long key, int value) {
+            int slot = hash(key) & mask;
+            while (keys.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            // The value goes first, so a reader seeing the key also sees its value
+            values.set(slot, value);
+            keys.set(slot, key);
+        }
+    }
+
+    /**
+     * A distinct name segment, shared by every path ending in it.
+     */
+    private static final class Segment {
+
+        private final String name;
+        private final int id;
+
+        private Segment(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.lang.reflect.Method;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds targets using a bounded number of worker slots.
+ *
+ * <p>
+ * A target is only started once the files it consumes from other targets have been provided. It
+ * holds a slot while it is running, and gives it up if it has to block waiting on a file so that
+ * another target can make progress in the meantime.
+ * </p>
+ *
+ * <p>
+ * When more targets are ready than there are free slots, the targets on the longest path to the
+ * end of the build are started first.
+ * </p>
+ *
+ * <p>
+ * Alternatively, targets can be built on virtual threads, where waiting is cheap enough that every
+ * ready target is started straight away and only the number of child processes is limited.
+ * </p>
+ */
+public class Scheduler {
+
+    private final Graph graph;
+    private final int jobs;
+    private final boolean virtual;
+    private final Semaphore slots;
+    private final BlockingQueue<ITarget> ready;
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+    private final ThreadLocal<ITarget> current = new ThreadLocal<>();
+    private Object builder;
+    private Method unstarted;
+
+    /**
+     * Creates a scheduler which will run at most the given number of targets at once, in the order
+     * allowed by the given graph.
+     */
+    public Scheduler(IMatch match, Graph graph, int jobs) {
+        this(match, graph, jobs, false);
+    }
+
+    /**
+     * Creates a scheduler which will run targets in the order allowed by the given graph, either on
+     * virtual threads, or at most the given number at once on platform threads.
+     */
+    public Scheduler(IMatch match, final Graph graph, int jobs, boolean virtual) {
+        if (jobs < 1) {
+            match.error("jobs must be at least 1");
+        }
+        if (virtual) {
+            try {
+                // Looked up reflectively so Match still runs on JVMs without virtual threads
+                builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            } catch (Exception e) {
+                match.warn("virtual threads aren't supported by this JVM, using platform threads");
+                virtual = false;
+            }
+        }
+        this.graph = graph;
+        this.jobs = jobs;
+        this.virtual = virtual;
+        slots = new Semaphore(jobs);
+        ready = new PriorityBlockingQueue<>(11, new Comparator<ITarget>() {
+            @Override
+            public int compare(ITarget a, ITarget b) {
+                return Long.compare(graph.getPriority(b), graph.getPriority(a));
+            }
+        });
+    }
+
+    /**
+     * Gets the maximum number of targets that can run at once.
+     *
+     * @return the number of worker slots.
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Checks if targets are built on virtual threads.
+     *
+     * @return true iff targets are built on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Gets how long the function of each target took to run, in milliseconds. Targets which were
+     * up to date or restored from the cache are left out, so the durations of their last real
+     * build can be kept.
+     *
+     * @return the durations keyed by target name.
+     */
+    public Map<String, Long> getDurations() {
+        return durations;
+    }
+
+    /**
+     * Gets the target being built by the current thread.
+     *
+     * @return the target, or null if the current thread isn't building a target.
+     */
+    public ITarget getCurrentTarget() {
+        return current.get();
+    }
+
+    /**
+     * Builds all the given targets, waiting until they have finished or the timeout elapses.
+     *
+     * @param targets the targets in topological order.
+     * @return true iff all targets finished building before the timeout.
+     */
+    public boolean build(final List<ITarget> targets, long timeout, TimeUnit unit) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(targets.size());
+        for (ITarget target : targets) {
+            if (graph.isReady(target)) {
+                ready.add(target);
+            }
+        }
+        Thread dispatcher = new Thread("Dispatcher") {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < targets.size(); i++) {
+                        // Only pick the next target once a slot is free, so it's picked from
+                        // everything that became ready in the meantime
+                        acquire();
+                        newThread(new Worker(ready.take(), latch)).start();
+                    }
+                } catch (InterruptedException e) {
+                    /* ignored */
+                }
+            }
+        };
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * Called when the given file is provided, queuing any targets that were waiting on it.
+     */
+    public void provide(String file) {
+        ready.addAll(graph.provide(file));
+    }
+
+    /**
+     * Called before the current thread blocks, freeing its slot for another target.
+     */
+    public void block() {
+        if (current.get() != null) {
+            release();
+        }
+    }
+
+    /**
+     * Called after the current thread unblocks, waiting until a slot is free to continue.
+     */
+    public void unblock() {
+        if (current.get() != null) {
+            acquire();
+        }
+    }
+
+    private void acquire() {
+        if (!virtual) {
+            slots.acquireUninterruptibly();
+        }
+    }
+
+    private void release() {
+        if (!virtual) {
+            slots.release();
+        }
+    }
+
+    private Thread newThread(Runnable runnable) {
+        if (virtual) {
+            try {
+                return (Thread) unstarted.invoke(builder, runnable);
+            } catch (Exception e) {
+                throw new RuntimeException("couldn't create virtual thread", e);
+            }
+        }
+        return new Thread(runnable);
+    }
+
+    private class Worker implements Runnable {
+
+        private final ITarget target;
+        private final CountDownLatch latch;
+
+        private Worker(ITarget target, CountDownLatch latch) {
+            this.target = target;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            current.set(target);
+            try {
+                target.build();
+            } finally {
+                long duration = target.getDuration();
+                if (duration >= 0) {
+                    durations.put(target.getName(), duration);
+                }
+                current.remove();
+                ready.addAll(graph.finish(target));
+                release();
+                latch.countDown();
+            }
+        }
+    }
+}
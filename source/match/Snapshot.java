@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The directory listings found by the last scan of the workspace, so the next scan only has to
+ * list the directories which have changed.
+ *
+ * <p>
+ * Each listing is stored with its directory's modification time, along with the type, size and
+ * modification time of each entry. Adding, removing or renaming an entry changes the directory's
+ * modification time, so if it is the same on the next scan the listing can be reused, and only
+ * the subdirectories have to be checked. The sizes and times of files in a reused listing are as
+ * they were when it was taken.
+ * </p>
+ *
+ * <p>
+ * As with git's index, a listing taken within the file system's timestamp granularity of the
+ * directory changing is never reused, as a change made in the same tick wouldn't be noticed.
+ * </p>
+ */
+public class Snapshot {
+
+    private static final int VERSION = 1;
+    // The coarsest granularity of a modification time, on FAT file systems
+    private static final long GRANULARITY = 2000;
+
+    private final PathTable paths;
+    private final long time = System.currentTimeMillis();
+    private final Map<Integer, Listing> previous = new HashMap<>();
+    private final Map<Integer, Listing> current = new HashMap<>();
+    private long previousTime;
+    private int listed;
+    private int reused;
+
+    /**
+     * Creates an empty snapshot, interning paths into the given table.
+     */
+    public Snapshot(PathTable paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Loads the listings stored in the given file, if it was written for the given root directory.
+     */
+    public synchronized void load(File file, Path root) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        String directory = root.normalize().toAbsolutePath().toString();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION || !in.readUTF().equals(directory)) {
+                return;
+            }
+            previousTime = in.readLong();
+            int directories = in.readInt();
+            for (int i = 0; i < directories; i++) {
+                String relative = in.readUTF();
+                int id = paths.add(relative.isEmpty() ? directory : directory + File.separator + relative);
+                long modified = in.readLong();
+                int count = in.readInt();
+                Listing listing = new Listing(modified, count);
+                for (int j = 0; j < count; j++) {
+                    int child = paths.add(id, in.readUTF());
+                    listing.set(j, child, in.readByte(), in.readLong(), in.readLong());
+                }
+                previous.put(id, listing);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the listings taken or reused by this scan to the given file, for the given root directory.
+     */
+    public synchronized void save(File file, Path root) throws IOException {
+        String directory = root.normalize().toAbsolutePath().toString();
+        file.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(directory);
+            out.writeLong(time);
+            out.writeInt(current.size());
+            for (Map.Entry<Integer, Listing> entry : current.entrySet()) {
+                String path = paths.getPath(entry.getKey());
+                out.writeUTF(path.equals(directory) ? "" : path.substring(directory.length() + 1));
+                Listing listing = entry.getValue();
+                out.writeLong(listing.modified);
+                out.writeInt(listing.children.length);
+                for (int i = 0; i < listing.children.length; i++) {
+                    out.writeUTF(paths.getName(listing.children[i]));
+                    out.writeByte(listing.types[i]);
+                    out.writeLong(listing.times[i]);
+                    out.writeLong(listing.sizes[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Gets the previous listing of the directory with the given id, if it is still valid, and keeps
+     * it for this scan.
+     *
+     * @param modified the directory's current modification time.
+     * @return the listing, or null if the directory has to be listed again.
+     */
+    public synchronized Listing reuse(int id, long modified) {
+        Listing listing = previous.get(id);
+        if (listing == null || listing.modified != modified || modified + GRANULARITY > previousTime) {
+            return null;
+        }
+        current.put(id, listing);
+        reused++;
+        return listing;
+    }
+
+    /**
+     * Records the listing just taken of the directory with the given id.
+     */
+    public synchronized void put(int id, Listing listing) {
+        current.put(id, listing);
+        listed++;
+    }
+
+    /**
+     * Gets the number of directories listed from disk by this scan.
+     */
+    public synchronized int getListedCount() {
+        return listed;
+    }
+
+    /**
+     * Gets the number of directories whose listing was reused by this scan.
+     */
+    public synchronized int getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * The entries of a directory, by path table id.
+     */
+    public static final class Listing {
+
+        private static final byte DIRECTORY = 1;
+        private static final byte REGULAR_FILE = 2;
+
+        private final long modified;
+        private final int[] children;
+        private final byte[] types;
+        private final long[] times;
+        private final long[] sizes;
+
+        /**
+         * Creates a listing of the given number of entries, for a directory with the given
+         * modification time.
+         */
+        public Listing(long modified, int count) {
+            this.modified = modified;
+            children = new int[count];
+            types = new byte[count];
+            times = new long[count];
+            sizes = new long[count];
+        }
+
+        /**
+         * Sets the entry at the given index.
+         */
+        public void set(int index, int id, BasicFileAttributes attributes) {
+            byte type = attributes.isDirectory() ? DIRECTORY : attributes.isRegularFile() ? REGULAR_FILE : 0;
+            set(index, id, type, attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        private void set(int index, int id, byte type, long time, long size) {
+            children[index] = id;
+            types[index] = type;
+            times[index] = time;
+            sizes[index] = size;
+        }
+
+        /**
+         * Gets the number of entries.
+         */
+        public int size() {
+            return children.length;
+        }
+
+        /**
+         * Gets the id of the entry at the given index.
+         */
+        public int getId(int index) {
+            return children[index];
+        }
+
+        /**
+         * Gets the attributes of the entry at the given index, as they were when listed.
+         */
+        public BasicFileAttributes getAttributes(int index) {
+            return new Attributes(types[index], times[index], sizes[index]);
+        }
+    }
+
+    private static final class Attributes implements BasicFileAttributes {
+
+        private final byte type;
+        private final FileTime time;
+        private final long size;
+
+        private Attributes(byte type, long time, long size) {
+            this.type = type;
+            this.time = FileTime.fromMillis(time);
+            this.size = size;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return time;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return type == Listing.REGULAR_FILE;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return type == Listing.DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return type == 0;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The digests of the files hashed by previous builds, keyed by path along with the file's stat
+ * data, so a file is only read again if it has changed.
+ *
+ * <p>
+ * A stored digest is reused if the file's inode, size, modification time and change time all
+ * match. As with git's racy-clean rule, a digest is never stored for a file which changed within
+ * the file system's timestamp granularity of being hashed, as a change made in the same tick
+ * wouldn't alter its stat data. Only the entries used by a build are saved, so files which are no
+ * longer hashed drop out.
+ * </p>
+ */
+public class StatCache {
+
+    private static final int VERSION = 1;
+    // The coarsest granularity of a modification time, on FAT file systems
+    private static final long GRANULARITY = TimeUnit.SECONDS.toNanos(2);
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final ConcurrentMap<String, Entry> previous = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> current = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Loads the entries stored in the given file.
+     */
+    public void load(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Stat stat = new Stat(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+                previous.put(path, new Entry(stat, in.readUTF()));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the entries used since loading to the given file.
+     */
+    public void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(VERSION);
+            // Copy first, as hashing may still be going on in the background
+            Map<String, Entry> entries = new HashMap<>(current);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Stat stat = entry.getValue().stat;
+                out.writeUTF(entry.getKey());
+                out.writeLong(stat.inode);
+                out.writeLong(stat.size);
+                out.writeLong(stat.modified);
+                out.writeLong(stat.changed);
+                out.writeUTF(entry.getValue().digest);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the stat data of the given file.
+     *
+     * @return the stat data, or null if the file isn't a regular file.
+     */
+    public Stat stat(File file) throws IOException {
+        Path path = file.toPath();
+        if (UNIX) {
+            Map<String, Object> attributes = Files.readAttributes(path, "unix:mode,ino,size,lastModifiedTime,ctime");
+            // Only the file type bits of the mode tell a regular file
+            if (((Integer) attributes.get("mode") & 0170000) != 0100000) {
+                return null;
+            }
+            return new Stat((Long) attributes.get("ino"), (Long) attributes.get("size"),
+                    toNanos(attributes.get("lastModifiedTime")), toNanos(attributes.get("ctime")));
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        // Without a change time or inode, a file replaced by another of the same size and time can't be told apart
+        return new Stat(0, attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                attributes.creationTime().to(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Gets the stored digest of the file at the given path, if its stat data still matches.
+     *
+     * @return the digest, or null if the file has to be hashed.
+     */
+    public String get(String path, Stat stat) {
+        Entry entry = current.get(path);
+        if (entry == null) {
+            entry = previous.get(path);
+        }
+        if (entry == null || !entry.stat.equals(stat)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        current.put(path, entry);
+        hits.incrementAndGet();
+        return entry.digest;
+    }
+
+    /**
+     * Stores the digest of the file at the given path, hashed after reading the given stat data,
+     * unless the file changed too recently to be trusted.
+     */
+    public void put(String path, Stat stat, String digest) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (Math.max(stat.modified, stat.changed) + GRANULARITY > now) {
+            current.remove(path);
+            return;
+        }
+        current.put(path, new Entry(stat, digest));
+    }
+
+    /**
+     * Gets the number of digests reused since loading.
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups since loading which found no digest to reuse. The file may still
+     * have been hashed without reading it, from the git index.
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    private static long toNanos(Object time) {
+        return ((FileTime) time).to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The stat data of a file, compared to tell if it has changed.
+     */
+    public static final class Stat {
+
+        private final long inode;
+        private final long size;
+        private final long modified;
+        private final long changed;
+
+        private Stat(long inode, long size, long modified, long changed) {
+            this.inode = inode;
+            this.size = size;
+            this.modified = modified;
+            this.changed = changed;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Stat)) {
+                return false;
+            }
+            Stat stat = (Stat) object;
+            return inode == stat.inode && size == stat.size && modified == stat.modified && changed == stat.changed;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (inode ^ size ^ modified ^ changed);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Stat stat;
+        private final String digest;
+
+        private Entry(Stat stat, String digest) {
+            this.stat = stat;
+            this.digest = digest;
+        }
+    }
+}
@@ -20,7 +20,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import match.cache.ActionCache;
 import match.expression.function.IFunction;
 
 public class Target implements ITarget {
@@ -30,7 +36,9 @@ public class Target implements ITarget {
     private String name = "";
     private IFunction function;
     private String lastCommand;
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
     private volatile boolean finished = false;
+    private volatile long duration = -1;
 
     public Target(IMatch match, File file) {
         this.match = match;
@@ -77,6 +85,14 @@ public class Target implements ITarget {
         this.function = function;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IFunction getFunction() {
+        return function;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -91,8 +107,33 @@ public class Target implements ITarget {
     @Override
     public void build() {
         try {
-            function.resolve();
-            // TODO put this target's input and output files in the database
+            Database database = match.getDatabase();
+            if (database == null || !function.isReproducible()) {
+                resolve();
+                return;
+            }
+            Properties record = database.fingerprint(this);
+            if (database.isUpToDate(this, record)) {
+                if (match.isVerbose()) {
+                    match.println(getName() + " is up to date");
+                }
+                return;
+            }
+            ActionCache cache = function.isCacheable() ? match.getCache() : null;
+            if (cache != null && cache.restore(this, record)) {
+                if (match.isVerbose()) {
+                    match.println(getName() + " restored from cache");
+                }
+                database.store(this, record);
+                return;
+            }
+            resolve();
+            database.store(this, record);
+            if (cache != null) {
+                cache.save(this, record);
+            }
+        } catch (Exception e) {
+            match.error(e);
         } finally {
             finished = true;
         }
@@ -106,6 +147,23 @@ public class Target implements ITarget {
         return finished;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDuration() {
+        return duration;
+    }
+
+    private void resolve() {
+        long start = System.nanoTime();
+        try {
+            function.resolve();
+        } finally {
+            duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -120,11 +178,9 @@ public class Target implements ITarget {
     @Override
     public int runCommand(String command) {
         int result = 0;
+        match.startProcess();
         try {
-            lastCommand = command;
-            if (match.isVerbose()) {
-                match.println(command);
-            }
+            recordCommand(command);
             ProcessBuilder pb = new ProcessBuilder("/bin/bash", "-c", command);
             pb.directory(getDirectory());
             Process process = pb.start();
@@ -151,10 +207,24 @@ public class Target implements ITarget {
             }
         } catch (Exception e) {
             match.error(e);
+        } finally {
+            match.endProcess();
         }
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCommand(String command) {
+        lastCommand = command;
+        commands.add(command);
+        if (match.isVerbose()) {
+            match.println(command);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -162,4 +232,12 @@ public class Target implements ITarget {
     public String getLastCommand() {
         return lastCommand;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getCommands() {
+        return new ArrayList<>(commands);
+    }
 }
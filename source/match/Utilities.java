@@ -18,10 +18,17 @@ package match;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Properties;
 
 /**
  * Class containg utility useful functions.
@@ -47,6 +54,57 @@ public final class Utilities {
         return sb.toString();
     }
 
+    /**
+     * Expands the environment variables in the given string, written as $NAME or ${NAME}, and a
+     * leading ~, the way the shell running the target's commands would.
+     *
+     * <p>
+     * Unset variables expand to nothing.
+     * </p>
+     */
+    public static String expand(String string) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        if (string.equals("~") || string.startsWith("~/")) {
+            String home = System.getenv("HOME");
+            sb.append(home == null ? System.getProperty("user.home") : home);
+            start = 1;
+        }
+        for (int i = start; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != '$' || i + 1 == string.length()) {
+                sb.append(c);
+                continue;
+            }
+            int begin = i + 1;
+            int end;
+            if (string.charAt(begin) == '{') {
+                end = string.indexOf('}', begin);
+                if (end < 0) {
+                    sb.append(c);
+                    continue;
+                }
+                i = end;
+                begin++;
+            } else {
+                end = begin;
+                while (end < string.length() && (Character.isLetterOrDigit(string.charAt(end)) || string.charAt(end) == '_')) {
+                    end++;
+                }
+                if (end == begin) {
+                    sb.append(c);
+                    continue;
+                }
+                i = end - 1;
+            }
+            String value = System.getenv(string.substring(begin, end));
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns true if the operating system is Linux.
      */
@@ -75,6 +133,13 @@ public final class Utilities {
         writeStringToFile(string, file, false);
     }
 
+    /**
+     * Reads the file into a string.
+     */
+    public static String readFileToString(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
     /**
      * Writes the given string, optionally appending, to the file.
      */
@@ -83,4 +148,33 @@ public final class Utilities {
         writer.write(string);
         writer.close();
     }
+
+    /**
+     * Reads the properties from the given file, returning empty properties if the file doesn't exist.
+     */
+    public static Properties readProperties(File file) throws Exception {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Writes the properties to the given file, creating the parent directories if necessary.
+     */
+    public static void writeProperties(Properties properties, File file) throws Exception {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks a directory tree in parallel, adding each entry to a path table as it goes.
+ *
+ * <p>
+ * Each directory is listed by its own task on a fork/join pool, and the attributes of each entry
+ * are read once, as it is listed.
+ * </p>
+ *
+ * <p>
+ * Given a snapshot of a previous walk, a directory which hasn't changed since is not listed again,
+ * and its entries are visited with the attributes they had then. Since editing a file doesn't
+ * change its directory, those attributes only say that the entry still exists and what type it
+ * is. The size and times of a file may be stale, so a visitor which needs them has to read them
+ * again itself.
+ * </p>
+ */
+public class Walker {
+
+    /**
+     * Visits the entries found while walking, from any of the pool's threads.
+     */
+    public interface IVisitor {
+
+        /**
+         * Called for each file and directory found.
+         *
+         * @param id the entry's id in the path table.
+         * @param attributes the entry's attributes, only reliable for its type if from a snapshot.
+         * @return true to walk into the directory, ignored for files.
+         */
+        boolean visit(Path path, int id, BasicFileAttributes attributes);
+    }
+
+    private final PathTable paths;
+    private final ForkJoinPool pool;
+    private final Snapshot snapshot;
+
+    /**
+     * Creates a walker adding entries to the given table, using the common pool.
+     */
+    public Walker(PathTable paths) {
+        this(paths, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a walker adding entries to the given table, using the given pool.
+     */
+    public Walker(PathTable paths, ForkJoinPool pool) {
+        this(paths, pool, null);
+    }
+
+    /**
+     * Creates a walker adding entries to the given table, using the given pool, and reusing and
+     * recording listings in the given snapshot.
+     */
+    public Walker(PathTable paths, ForkJoinPool pool, Snapshot snapshot) {
+        this.paths = paths;
+        this.pool = pool;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Walks everything under the given directory, waiting until it has all been visited.
+     */
+    public void walk(Path directory, IVisitor visitor) throws IOException {
+        Path path = directory.normalize().toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        try {
+            pool.invoke(new Task(path, paths.add(path.toString()), attributes, visitor));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path directory;
+        private final int id;
+        private final transient BasicFileAttributes attributes;
+        private final transient IVisitor visitor;
+
+        private Task(Path directory, int id, BasicFileAttributes attributes, IVisitor visitor) {
+            this.directory = directory;
+            this.id = id;
+            this.attributes = attributes;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            List<Task> tasks = new ArrayList<>();
+            try {
+                long modified = attributes.lastModifiedTime().toMillis();
+                Snapshot.Listing listing = snapshot == null ? null : snapshot.reuse(id, modified);
+                if (listing != null) {
+                    reuse(listing, tasks);
+                } else {
+                    list(modified, tasks);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(tasks);
+        }
+
+        private void list(long modified, List<Task> tasks) throws IOException {
+            List<Integer> ids = new ArrayList<>();
+            List<BasicFileAttributes> list = new ArrayList<>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+            try {
+                for (Path child : stream) {
+                    BasicFileAttributes childAttributes;
+                    try {
+                        childAttributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        // A broken link, or deleted since the directory was listed
+                        continue;
+                    }
+                    int childId = paths.add(id, child.getFileName().toString());
+                    ids.add(childId);
+                    list.add(childAttributes);
+                    if (visitor.visit(child, childId, childAttributes) && childAttributes.isDirectory()) {
+                        tasks.add(new Task(child, childId, childAttributes, visitor));
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+            if (snapshot != null) {
+                Snapshot.Listing listing = new Snapshot.Listing(modified, ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    listing.set(i, ids.get(i), list.get(i));
+                }
+                snapshot.put(id, listing);
+            }
+        }
+
+        private void reuse(Snapshot.Listing listing, List<Task> tasks) throws IOException {
+            for (int i = 0; i < listing.size(); i++) {
+                int childId = listing.getId(i);
+                Path child = directory.resolve(paths.getName(childId));
+                BasicFileAttributes childAttributes = listing.getAttributes(i);
+                if (visitor.visit(child, childId, childAttributes) && childAttributes.isDirectory()) {
+                    // Only a directory's own modification time tells if it has changed
+                    try {
+                        childAttributes = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    if (childAttributes.isDirectory()) {
+                        tasks.add(new Task(child, childId, childAttributes, visitor));
+                    }
+                }
+            }
+        }
+    }
+}
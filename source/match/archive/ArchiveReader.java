@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip or jar archive from its central directory, so their compressed data
+ * can be copied into another archive without being inflated and deflated again.
+ */
+public class ArchiveReader implements Closeable {
+
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private final RandomAccessFile file;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> names = new HashMap<>();
+
+    /**
+     * Opens the given archive and reads its central directory.
+     */
+    public ArchiveReader(File archive) throws IOException {
+        file = new RandomAccessFile(archive, "r");
+        try {
+            read();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the entries in the order they appear in the archive.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Gets the entry with the given name.
+     *
+     * @return the entry, or null if there isn't one.
+     */
+    public Entry getEntry(String name) {
+        return names.get(name);
+    }
+
+    /**
+     * Copies the given entry's data, as it is compressed in the archive, to the given stream.
+     */
+    public void copy(Entry entry, OutputStream out) throws IOException {
+        byte[] header = new byte[30];
+        file.seek(entry.offset);
+        file.readFully(header);
+        if (getInt(header, 0) != ArchiveWriter.LOCAL_HEADER) {
+            throw new ZipException("invalid local header for " + entry.name);
+        }
+        file.seek(entry.offset + header.length + getShort(header, 26) + getShort(header, 28));
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            int length = (int) Math.min(buffer.length, remaining);
+            file.readFully(buffer, 0, length);
+            out.write(buffer, 0, length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Reads the given entry's uncompressed data.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException(entry.name + " is too large to read");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) entry.compressedSize);
+        copy(entry, bytes);
+        if (entry.method == ArchiveWriter.STORED) {
+            return bytes.toByteArray();
+        }
+        if (entry.method != ArchiveWriter.DEFLATED) {
+            throw new ZipException("unsupported compression method for " + entry.name);
+        }
+        byte[] data = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes.toByteArray());
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int count = inflater.inflate(data, length, data.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("truncated entry " + entry.name);
+                }
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("invalid entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void read() throws IOException {
+        long length = file.length();
+        int tail = (int) Math.min(length, END_SIZE + MAX_COMMENT);
+        byte[] bytes = new byte[tail];
+        file.seek(length - tail);
+        file.readFully(bytes);
+        // The end record is followed by a comment of the length it gives, so search back for it
+        int end = -1;
+        for (int i = tail - END_SIZE; i >= 0; i--) {
+            if (getInt(bytes, i) == ArchiveWriter.END && i + END_SIZE + getShort(bytes, i + 20) == tail) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("not an archive");
+        }
+        long count = getShort(bytes, end + 10);
+        long size = getUnsignedInt(bytes, end + 12);
+        long start = getUnsignedInt(bytes, end + 16);
+        if (count == 0xFFFF || size == ArchiveWriter.ZIP64_MAGIC || start == ArchiveWriter.ZIP64_MAGIC) {
+            long position = length - tail + end - 20;
+            byte[] locator = new byte[20];
+            file.seek(position);
+            file.readFully(locator);
+            if (getInt(locator, 0) == ArchiveWriter.ZIP64_LOCATOR) {
+                byte[] record = new byte[56];
+                file.seek(getLong(locator, 8));
+                file.readFully(record);
+                if (getInt(record, 0) != ArchiveWriter.ZIP64_END) {
+                    throw new ZipException("invalid zip64 end record");
+                }
+                count = getLong(record, 32);
+                size = getLong(record, 40);
+                start = getLong(record, 48);
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new ZipException("central directory too large");
+        }
+        byte[] directory = new byte[(int) size];
+        file.seek(start);
+        file.readFully(directory);
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (getInt(directory, position) != ArchiveWriter.CENTRAL_HEADER) {
+                throw new ZipException("invalid central directory");
+            }
+            int nameLength = getShort(directory, position + 28);
+            int extraLength = getShort(directory, position + 30);
+            int commentLength = getShort(directory, position + 32);
+            Entry entry = new Entry(new String(directory, position + 46, nameLength, StandardCharsets.UTF_8));
+            entry.method = getShort(directory, position + 10);
+            entry.crc = getUnsignedInt(directory, position + 16);
+            entry.compressedSize = getUnsignedInt(directory, position + 20);
+            entry.size = getUnsignedInt(directory, position + 24);
+            entry.offset = getUnsignedInt(directory, position + 42);
+            readExtra(entry, directory, position + 46 + nameLength, extraLength);
+            entries.add(entry);
+            names.put(entry.name, entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private static void readExtra(Entry entry, byte[] bytes, int position, int length) {
+        int end = position + length;
+        while (position + 4 <= end) {
+            int id = getShort(bytes, position);
+            int size = getShort(bytes, position + 2);
+            int field = position + 4;
+            if (id == ArchiveWriter.ZIP64_EXTRA) {
+                // Only the values too large for the header are given, in this order
+                if (entry.size == ArchiveWriter.ZIP64_MAGIC) {
+                    entry.size = getLong(bytes, field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ArchiveWriter.ZIP64_MAGIC) {
+                    entry.compressedSize = getLong(bytes, field);
+                    field += 8;
+                }
+                if (entry.offset == ArchiveWriter.ZIP64_MAGIC) {
+                    entry.offset = getLong(bytes, field);
+                }
+            }
+            position += 4 + size;
+        }
+    }
+
+    private static int getShort(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | ((bytes[position + 1] & 0xFF) << 8);
+    }
+
+    private static int getInt(byte[] bytes, int position) {
+        return getShort(bytes, position) | (getShort(bytes, position + 2) << 16);
+    }
+
+    private static long getUnsignedInt(byte[] bytes, int position) {
+        return getInt(bytes, position) & 0xFFFFFFFFL;
+    }
+
+    private static long getLong(byte[] bytes, int position) {
+        return getUnsignedInt(bytes, position) | (getUnsignedInt(bytes, position + 4) << 32);
+    }
+
+    /**
+     * An entry in an archive.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the name of the entry, ending with a slash if it is a directory.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the method the entry's data is compressed with.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the CRC-32 of the entry's uncompressed data.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * Gets the size of the entry's uncompressed data.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the size of the entry's data as it is compressed in the archive.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Checks if the entry is a directory.
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
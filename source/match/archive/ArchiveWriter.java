@@ -0,0 +1,876 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip and jar archives directly, rather than running the zip or jar tools.
+ *
+ * <p>
+ * Entries are deflated concurrently on a pool of worker threads, and written out in the order
+ * they were added. Files larger than a block are split into blocks which are deflated separately,
+ * each primed with the end of the block before it, and joined into a single deflate stream, so
+ * even one large file is compressed on every core. The output doesn't depend on the number of
+ * threads.
+ * </p>
+ *
+ * <p>
+ * Every entry is given the same fixed time, and directories are added in sorted order, so
+ * archiving the same files always produces the same bytes.
+ * </p>
+ *
+ * <p>
+ * When updating an existing archive, entries whose contents haven't changed are copied from it as
+ * they are compressed, and only the changed entries are deflated. An entry only counts as unchanged
+ * if its size and CRC-32 match and its contents compare equal to the old entry's inflated data,
+ * since the CRC alone can collide. If nothing changed at all the
+ * archive is left as it is. The archive is written to a temporary file and moved into place, so
+ * it is never seen half written.
+ * </p>
+ */
+public class ArchiveWriter implements Closeable {
+
+    // The time is local, so the fields stored in the archive are the same in every time zone
+    public static final long TIME = LocalDateTime.of(1980, 2, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    public static final int DOS_TIME = 0;
+    public static final int DOS_DATE = (2 << 5) | 1;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END = 0x06054b50;
+    static final int ZIP64_END = 0x06064b50;
+    static final int ZIP64_LOCATOR = 0x07064b50;
+    static final int ZIP64_EXTRA = 0x0001;
+    static final int UTF8_FLAG = 0x0800;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int JAR_MAGIC = 0xCAFE;
+
+    private final File file;
+    private final File temporary;
+    private final ArchiveReader previous;
+    private final ExecutorService executor;
+    private final int window;
+    private final boolean jar;
+    private final Set<String> names = new HashSet<>();
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private final List<Entry> written = new ArrayList<>();
+    private final List<Entry> unchanged = new ArrayList<>();
+    private OutputStream out;
+    private int blocks;
+    private long offset;
+    private int reused;
+    private boolean modified;
+    private final Set<String> skipped = new HashSet<>();
+
+    /**
+     * Creates a writer for a zip archive.
+     */
+    public ArchiveWriter(File file) throws Exception {
+        this(file, null);
+    }
+
+    /**
+     * Creates a writer for a jar archive with the given manifest, or for a zip archive if the
+     * manifest is null.
+     */
+    public ArchiveWriter(File file, Manifest manifest) throws Exception {
+        this(file, manifest, false);
+    }
+
+    /**
+     * Creates a writer for an archive, which if update is set, reuses the unchanged entries of the
+     * archive already in the file.
+     */
+    public ArchiveWriter(File file, Manifest manifest, boolean update) throws Exception {
+        this(file, manifest, update, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a writer for an archive, deflating entries on the given executor with about the
+     * given number of blocks being deflated at once.
+     */
+    public ArchiveWriter(File file, Manifest manifest, boolean update, ExecutorService executor, int threads) throws Exception {
+        this.file = file.getAbsoluteFile();
+        this.file.getParentFile().mkdirs();
+        temporary = new File(this.file.getPath() + ".tmp");
+        ArchiveReader reader = null;
+        if (update && file.isFile()) {
+            try {
+                reader = new ArchiveReader(file);
+            } catch (IOException e) {
+                // Not a readable archive, so it is just overwritten
+            }
+        }
+        previous = reader;
+        this.executor = executor;
+        // Enough blocks in flight to keep every thread busy, without holding too much in memory
+        window = Math.max(4, threads * 4);
+        jar = manifest != null;
+        if (manifest != null) {
+            addDirectoryEntry("META-INF/");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            manifest.write(bytes);
+            add(JarFile.MANIFEST_NAME, bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Adds everything under the given directory, named relative to the directory.
+     */
+    public void addContents(File directory) throws Exception {
+        String[] children = directory.list();
+        if (children != null) {
+            Arrays.sort(children);
+            for (String child : children) {
+                add(child, new File(directory, child));
+            }
+        }
+    }
+
+    /**
+     * Adds the given file with the given name, or if it is a directory, adds it and everything
+     * under it.
+     */
+    public void add(String name, File file) throws Exception {
+        if (file.isDirectory()) {
+            addDirectoryEntry(name + "/");
+            String[] children = file.list();
+            Arrays.sort(children);
+            for (String child : children) {
+                add(name + "/" + child, new File(file, child));
+            }
+            return;
+        }
+        if (!file.isFile()) {
+            throw new IOException(file + " doesn't exist");
+        }
+        if (isSkipped(name)) {
+            return;
+        }
+        long length = file.length();
+        Entry entry = new Entry(name);
+        entry.previous = getPrevious(name, length);
+        if (length <= BLOCK_SIZE) {
+            entry.blocks.add(submit(new FileBlock(file, 0, length, true, entry.previous)));
+        } else if (entry.previous != null) {
+            // Only split the file into blocks if it turns out to have changed
+            entry.file = file;
+            entry.blocks.add(submit(new Check(file, entry.previous)));
+        } else {
+            entry.blocks.addAll(deflate(file, true));
+        }
+        queue(entry);
+    }
+
+    /**
+     * Adds an entry with the given name and contents.
+     */
+    public void add(String name, final byte[] bytes) throws Exception {
+        if (isSkipped(name)) {
+            return;
+        }
+        final Entry entry = new Entry(name);
+        entry.previous = getPrevious(name, bytes.length);
+        entry.blocks.add(submit(new Callable<Block>() {
+            @Override
+            public Block call() {
+                return Block.deflate(bytes, 0, bytes.length, true, entry.previous);
+            }
+        }));
+        queue(entry);
+    }
+
+    /**
+     * Adds the given entry of another archive, copying its data as it is compressed.
+     */
+    public void copy(ArchiveReader reader, ArchiveReader.Entry entry) throws Exception {
+        if (isSkipped(entry.getName())) {
+            return;
+        }
+        Entry copy = new Entry(entry.getName());
+        copy.reuse(reader, entry);
+        queue(copy);
+    }
+
+    /**
+     * Checks if an entry with the given name has already been added.
+     *
+     * @return true iff the archive has the entry.
+     */
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Skips any later entry with the given name, keeping the one already added, rather than
+     * failing as a duplicate.
+     */
+    public void skip(String name) {
+        skipped.add(name);
+    }
+
+    /**
+     * Finishes writing the archive.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            if (out == null && previous != null && reused == previous.getEntries().size()) {
+                // Every entry is the same as the one already in the archive
+                return;
+            }
+            open();
+            writeCentralDirectory();
+            out.close();
+            out = null;
+            if (previous != null) {
+                previous.close();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            modified = true;
+        } finally {
+            if (out != null) {
+                out.close();
+                temporary.delete();
+            }
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    /**
+     * Checks if the archive was written when the writer was closed, rather than being left as it
+     * was because nothing had changed.
+     *
+     * @return true iff the archive was written.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    private void addDirectoryEntry(String name) throws Exception {
+        // The same directory can come from more than one place, such as classes and resources
+        if (!names.contains(name)) {
+            Entry entry = new Entry(name);
+            ArchiveReader.Entry old = previous == null ? null : previous.getEntry(name);
+            if (old != null && old.getSize() == 0) {
+                entry.reuse(previous, old);
+            } else {
+                entry.method = STORED;
+                entry.data = new byte[0];
+            }
+            queue(entry);
+        }
+    }
+
+    private boolean isSkipped(String name) {
+        return skipped.contains(name) && names.contains(name);
+    }
+
+    private ArchiveReader.Entry getPrevious(String name, long size) {
+        ArchiveReader.Entry entry = previous == null ? null : previous.getEntry(name);
+        return entry != null && !entry.isDirectory() && entry.getSize() == size ? entry : null;
+    }
+
+    private List<Future<Block>> deflate(File file, boolean bounded) throws IOException {
+        List<Future<Block>> futures = new ArrayList<>();
+        long length = file.length();
+        for (long start = 0; start < length || start == 0; start += BLOCK_SIZE) {
+            long end = Math.min(length, start + BLOCK_SIZE);
+            FileBlock block = new FileBlock(file, start, end, end == length, null);
+            futures.add(bounded ? submit(block) : executor.submit(block));
+        }
+        return futures;
+    }
+
+    private void open() throws IOException {
+        if (out == null) {
+            out = new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024);
+            // The entries held back in case nothing changed have to be written after all
+            for (Entry entry : unchanged) {
+                write(entry);
+            }
+            unchanged.clear();
+        }
+    }
+
+    private Future<Block> submit(Callable<Block> block) throws IOException {
+        while (blocks >= window && !pending.isEmpty()) {
+            writeNext();
+        }
+        blocks++;
+        return executor.submit(block);
+    }
+
+    private void queue(Entry entry) throws IOException {
+        if (!names.add(entry.name)) {
+            throw new ZipException("duplicate entry: " + entry.name);
+        }
+        pending.add(entry);
+        // Write out whatever is already finished, so memory is freed as soon as possible
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Entry entry = pending.remove();
+        if (!entry.blocks.isEmpty()) {
+            blocks -= entry.blocks.size();
+            List<Block> list = get(entry.blocks);
+            entry.blocks.clear();
+            Block block = list.get(0);
+            if (list.size() == 1 && block.matched && isSame(entry.previous, entry.file, block.raw)) {
+                entry.reuse(previous, entry.previous);
+            } else {
+                if (entry.file != null) {
+                    // The file changed after all, so deflate it now
+                    list = get(deflate(entry.file, false));
+                } else if (block.matched) {
+                    // Only the CRC matched, so the contents still need deflating
+                    list = Arrays.asList(Block.deflate(block.raw, 0, block.raw.length, true, null));
+                }
+                entry.join(list);
+            }
+        }
+        if (out == null) {
+            List<ArchiveReader.Entry> entries = previous == null ? null : previous.getEntries();
+            if (entries != null && entry.source == previous && reused < entries.size() && entries.get(reused) == entry.raw) {
+                // Held back until something differs from the archive already there
+                reused++;
+                unchanged.add(entry);
+                return;
+            }
+            open();
+        }
+        write(entry);
+    }
+
+    /**
+     * Checks that the contents of a file, or the given bytes if there isn't one, are the same as
+     * the inflated data of the given entry of the previous archive.
+     */
+    private boolean isSame(ArchiveReader.Entry old, File file, byte[] bytes) throws IOException {
+        if (old.getMethod() != STORED && old.getMethod() != DEFLATED) {
+            return false;
+        }
+        InputStream in = file != null ? new FileInputStream(file) : new ByteArrayInputStream(bytes);
+        try {
+            Comparison comparison = new Comparison(in);
+            Inflater inflater = new Inflater(true);
+            try {
+                OutputStream out = old.getMethod() == STORED ? comparison : new InflaterOutputStream(comparison, inflater);
+                previous.copy(old, out);
+                out.close();
+            } finally {
+                inflater.end();
+            }
+            return comparison.same && in.read() < 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<Block> get(List<Future<Block>> futures) throws IOException {
+        List<Block> list = new ArrayList<>();
+        for (Future<Block> future : futures) {
+            try {
+                list.add(future.get());
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+        return list;
+    }
+
+    private void write(Entry entry) throws IOException {
+        entry.offset = offset;
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+        byte[] extra = new byte[0];
+        if (zip64) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeShort(bytes, ZIP64_EXTRA);
+            writeShort(bytes, 16);
+            writeLong(bytes, entry.size);
+            writeLong(bytes, entry.compressedSize);
+            extra = bytes.toByteArray();
+        } else if (jar && written.isEmpty()) {
+            // Marks the archive as a jar, as JarOutputStream does
+            extra = new byte[] { (byte) JAR_MAGIC, (byte) (JAR_MAGIC >> 8), 0, 0 };
+        }
+        entry.extra = extra;
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeInt(header, LOCAL_HEADER);
+        writeShort(header, zip64 ? 45 : 20);
+        writeShort(header, getFlags(entry.name));
+        writeShort(header, entry.method);
+        writeShort(header, DOS_TIME);
+        writeShort(header, DOS_DATE);
+        writeInt(header, (int) entry.crc);
+        writeInt(header, (int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+        writeInt(header, (int) (zip64 ? ZIP64_MAGIC : entry.size));
+        writeShort(header, name.length);
+        writeShort(header, extra.length);
+        header.write(name);
+        header.write(extra);
+        header.writeTo(out);
+        if (entry.raw != null) {
+            entry.source.copy(entry.raw, out);
+        } else {
+            out.write(entry.data);
+        }
+        offset += header.size() + entry.compressedSize;
+        entry.data = null;
+        written.add(entry);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = offset;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Entry entry : written) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            boolean sizes = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+            boolean position = entry.offset >= ZIP64_MAGIC;
+            ByteArrayOutputStream extra = new ByteArrayOutputStream();
+            if (sizes || position) {
+                writeShort(extra, ZIP64_EXTRA);
+                writeShort(extra, (sizes ? 16 : 0) + (position ? 8 : 0));
+                if (sizes) {
+                    writeLong(extra, entry.size);
+                    writeLong(extra, entry.compressedSize);
+                }
+                if (position) {
+                    writeLong(extra, entry.offset);
+                }
+            } else {
+                extra.write(entry.extra);
+            }
+            writeInt(bytes, CENTRAL_HEADER);
+            writeShort(bytes, sizes || position ? 45 : 20);
+            writeShort(bytes, sizes || position ? 45 : 20);
+            writeShort(bytes, getFlags(entry.name));
+            writeShort(bytes, entry.method);
+            writeShort(bytes, DOS_TIME);
+            writeShort(bytes, DOS_DATE);
+            writeInt(bytes, (int) entry.crc);
+            writeInt(bytes, (int) (sizes ? ZIP64_MAGIC : entry.compressedSize));
+            writeInt(bytes, (int) (sizes ? ZIP64_MAGIC : entry.size));
+            writeShort(bytes, name.length);
+            writeShort(bytes, extra.size());
+            writeShort(bytes, 0);// comment
+            writeShort(bytes, 0);// disk
+            writeShort(bytes, 0);// internal attributes
+            writeInt(bytes, 0);// external attributes
+            writeInt(bytes, (int) (position ? ZIP64_MAGIC : entry.offset));
+            bytes.write(name);
+            extra.writeTo(bytes);
+            if (bytes.size() > 64 * 1024) {
+                bytes.writeTo(out);
+                offset += bytes.size();
+                bytes.reset();
+            }
+        }
+        bytes.writeTo(out);
+        offset += bytes.size();
+        bytes.reset();
+        long size = offset - start;
+        int count = written.size();
+        boolean zip64 = count >= 0xFFFF || size >= ZIP64_MAGIC || start >= ZIP64_MAGIC;
+        if (zip64) {
+            long end = offset;
+            writeInt(bytes, ZIP64_END);
+            writeLong(bytes, 44);
+            writeShort(bytes, 45);
+            writeShort(bytes, 45);
+            writeInt(bytes, 0);
+            writeInt(bytes, 0);
+            writeLong(bytes, count);
+            writeLong(bytes, count);
+            writeLong(bytes, size);
+            writeLong(bytes, start);
+            writeInt(bytes, ZIP64_LOCATOR);
+            writeInt(bytes, 0);
+            writeLong(bytes, end);
+            writeInt(bytes, 1);
+        }
+        writeInt(bytes, END);
+        writeShort(bytes, 0);
+        writeShort(bytes, 0);
+        writeShort(bytes, zip64 ? 0xFFFF : count);
+        writeShort(bytes, zip64 ? 0xFFFF : count);
+        writeInt(bytes, (int) (zip64 ? ZIP64_MAGIC : size));
+        writeInt(bytes, (int) (zip64 ? ZIP64_MAGIC : start));
+        writeShort(bytes, 0);
+        bytes.writeTo(out);
+    }
+
+    private static int getFlags(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                return UTF8_FLAG;
+            }
+        }
+        return 0;
+    }
+
+    static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        writeShort(out, value);
+        writeShort(out, value >>> 16);
+    }
+
+    static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+
+    /**
+     * Combines the CRC-32 of two consecutive pieces of data into the CRC-32 of both, given the
+     * length of the second, as zlib's crc32_combine does.
+     */
+    static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // The operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+        // Apply length2 zero bytes to crc1
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * An entry waiting to be written, either already compressed or being deflated in blocks.
+     */
+    private static final class Entry {
+
+        private final String name;
+        private final List<Future<Block>> blocks = new ArrayList<>();
+        private ArchiveReader.Entry previous;
+        private ArchiveReader source;
+        private ArchiveReader.Entry raw;
+        private File file;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+        private byte[] data;
+        private byte[] extra;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        private boolean isDone() {
+            for (Future<Block> block : blocks) {
+                if (!block.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void reuse(ArchiveReader reader, ArchiveReader.Entry entry) {
+            source = reader;
+            raw = entry;
+            method = entry.getMethod();
+            crc = entry.getCrc();
+            size = entry.getSize();
+            compressedSize = entry.getCompressedSize();
+        }
+
+        private void join(List<Block> list) throws IOException {
+            if (list.size() == 1 && list.get(0).raw != null) {
+                // Small entries which don't compress are stored instead, like the zip tool does
+                Block block = list.get(0);
+                method = STORED;
+                crc = block.crc;
+                size = block.size;
+                data = block.raw;
+                compressedSize = data.length;
+                return;
+            }
+            method = DEFLATED;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (Block block : list) {
+                crc = combine(crc, block.crc, block.size);
+                size += block.size;
+                bytes.write(block.deflated);
+            }
+            data = bytes.toByteArray();
+            compressedSize = data.length;
+        }
+    }
+
+    /**
+     * A block of an entry, deflated independently of the other blocks.
+     */
+    private static final class Block {
+
+        private long crc;
+        private long size;
+        private byte[] deflated;
+        private byte[] raw;
+        private boolean matched;
+
+        /**
+         * Deflates the given bytes, using the bytes before the start as the dictionary and ending
+         * the deflate stream if this is the last block, unless they match the given entry.
+         */
+        private static Block deflate(byte[] bytes, int start, int end, boolean last, ArchiveReader.Entry previous) {
+            Block block = new Block();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, start, end - start);
+            block.crc = crc.getValue();
+            block.size = end - start;
+            if (previous != null && previous.getCrc() == block.crc) {
+                // Kept until the contents have been compared with the previous entry
+                block.matched = true;
+                block.raw = Arrays.copyOfRange(bytes, start, end);
+                return block;
+            }
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (start > 0) {
+                    int dictionary = Math.min(start, DICTIONARY_SIZE);
+                    deflater.setDictionary(bytes, start - dictionary, dictionary);
+                }
+                deflater.setInput(bytes, start, end - start);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, (end - start) / 2));
+                byte[] buffer = new byte[64 * 1024];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // Flushing ends the block on a byte boundary, so the next block can follow it
+                    int length;
+                    do {
+                        length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, length);
+                    } while (length == buffer.length);
+                }
+                block.deflated = out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+            if (start == 0 && last && block.deflated.length >= block.size) {
+                block.raw = Arrays.copyOfRange(bytes, start, end);
+            }
+            return block;
+        }
+    }
+
+    /**
+     * Reads and deflates a block of a file.
+     */
+    private static final class FileBlock implements Callable<Block> {
+
+        private final File file;
+        private final long start;
+        private final long end;
+        private final boolean last;
+        private final ArchiveReader.Entry previous;
+
+        private FileBlock(File file, long start, long end, boolean last, ArchiveReader.Entry previous) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.last = last;
+            this.previous = previous;
+        }
+
+        @Override
+        public Block call() throws Exception {
+            long from = Math.max(0, start - DICTIONARY_SIZE);
+            byte[] bytes = new byte[(int) (end - from)];
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                in.seek(from);
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            return Block.deflate(bytes, (int) (start - from), bytes.length, last, previous);
+        }
+    }
+
+    /**
+     * Computes the CRC-32 of a file, to see if it matches the entry in the previous archive.
+     */
+    private static final class Check implements Callable<Block> {
+
+        private final File file;
+        private final ArchiveReader.Entry previous;
+
+        private Check(File file, ArchiveReader.Entry previous) {
+            this.file = file;
+            this.previous = previous;
+        }
+
+        @Override
+        public Block call() throws Exception {
+            Block block = new Block();
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            InputStream in = new FileInputStream(file);
+            try {
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, length);
+                    block.size += length;
+                }
+            } finally {
+                in.close();
+            }
+            block.crc = crc.getValue();
+            block.matched = block.crc == previous.getCrc() && block.size == previous.getSize();
+            return block;
+        }
+    }
+
+    /**
+     * Compares the bytes written to it with the bytes read from a stream.
+     */
+    private static final class Comparison extends OutputStream {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private boolean same = true;
+
+        private Comparison(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int start, int length) throws IOException {
+            while (same && length > 0) {
+                int count = in.read(buffer, 0, Math.min(buffer.length, length));
+                if (count < 0) {
+                    same = false;
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] != bytes[start + i]) {
+                        same = false;
+                        return;
+                    }
+                }
+                start += count;
+                length -= count;
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+
+/**
+ * Merges the entries of library jars into a jar being written, copying their data as it is
+ * compressed so the libraries are never extracted or compressed again.
+ *
+ * <p>
+ * Entries matching one of the merge patterns, such as service files, are combined from every jar
+ * that has them. Any other entry found in more than one library is resolved by the duplicate
+ * rule, though unless the rule is to fail, the classes and resources of the jar being written take
+ * precedence over libraries. A duplicate among the jar's own entries is always an error. The
+ * manifests and signatures of the libraries are left out, as they don't apply to the merged jar.
+ * </p>
+ */
+public class JarMerger implements Closeable {
+
+    public static final String FIRST = "first";
+    public static final String LAST = "last";
+    public static final String ERROR = "error";
+    public static final String SERVICES = "META-INF/services/.*";
+
+    private static final Pattern EXCLUDED = Pattern.compile(Pattern.quote(JarFile.MANIFEST_NAME) + "|META-INF/INDEX\\.LIST|META-INF/[^/]+\\.(SF|DSA|RSA|EC)", Pattern.CASE_INSENSITIVE);
+
+    private final String duplicate;
+    private final List<Pattern> merged;
+    private final List<File> jars = new ArrayList<>();
+    private final List<ArchiveReader> readers = new ArrayList<>();
+    // The library each entry is taken from, in the order they are added
+    private final Map<String, ArchiveReader> sources = new LinkedHashMap<>();
+    private final Map<String, List<ArchiveReader>> merges = new TreeMap<>();
+
+    /**
+     * Creates a merger for the given library jars.
+     *
+     * @param duplicate how to resolve an entry in more than one library; FIRST or LAST to take it
+     * from the first or last library in order, or ERROR to fail.
+     * @param merged the patterns of the entries to combine from every library.
+     */
+    public JarMerger(List<File> libraries, String duplicate, List<Pattern> merged) throws IOException {
+        if (!duplicate.equals(FIRST) && !duplicate.equals(LAST) && !duplicate.equals(ERROR)) {
+            throw new IllegalArgumentException("unknown duplicate rule " + duplicate);
+        }
+        this.duplicate = duplicate;
+        this.merged = merged;
+        try {
+            for (File library : libraries) {
+                ArchiveReader reader = new ArchiveReader(library);
+                jars.add(library);
+                readers.add(reader);
+                for (ArchiveReader.Entry entry : reader.getEntries()) {
+                    String name = entry.getName();
+                    if (entry.isDirectory() || EXCLUDED.matcher(name).matches()) {
+                        continue;
+                    }
+                    if (isMerged(name)) {
+                        List<ArchiveReader> list = merges.get(name);
+                        if (list == null) {
+                            list = new ArrayList<>();
+                            merges.put(name, list);
+                        }
+                        list.add(reader);
+                        continue;
+                    }
+                    ArchiveReader existing = sources.get(name);
+                    if (existing == null || duplicate.equals(LAST)) {
+                        sources.put(name, reader);
+                    } else if (duplicate.equals(ERROR)) {
+                        throw new ZipException("duplicate entry: " + name + " in " + getJar(existing) + " and " + library);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks if entries with the given name are combined from every jar that has them.
+     *
+     * @return true iff the name matches one of the merge patterns.
+     */
+    public boolean isMerged(String name) {
+        for (Pattern pattern : merged) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the entries combined from every library, first including the given files of the jar
+     * being written with the same names.
+     *
+     * <p>
+     * This has to be called before the jar's own classes and resources are added, and then the
+     * writer skips the jar's own copies of the combined entries, but no others.
+     * </p>
+     *
+     * @param files the jar's own files to combine, keyed by entry name.
+     */
+    public void addMerged(ArchiveWriter writer, Map<String, File> files) throws Exception {
+        Map<String, List<byte[]>> contents = new TreeMap<>();
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            get(contents, entry.getKey()).add(Files.readAllBytes(entry.getValue().toPath()));
+        }
+        for (Map.Entry<String, List<ArchiveReader>> entry : merges.entrySet()) {
+            for (ArchiveReader reader : entry.getValue()) {
+                get(contents, entry.getKey()).add(reader.read(reader.getEntry(entry.getKey())));
+            }
+        }
+        for (Map.Entry<String, List<byte[]>> entry : contents.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (byte[] content : entry.getValue()) {
+                bytes.write(content);
+                // Service files list one name per line, so keep each file's last line separate
+                if (content.length > 0 && content[content.length - 1] != '\n') {
+                    bytes.write('\n');
+                }
+            }
+            writer.add(entry.getKey(), bytes.toByteArray());
+            writer.skip(entry.getKey());
+        }
+    }
+
+    /**
+     * Adds the remaining entries of the libraries, after the jar's own classes and resources,
+     * copying them as they are compressed.
+     */
+    public void addEntries(ArchiveWriter writer) throws Exception {
+        for (ArchiveReader reader : readers) {
+            for (ArchiveReader.Entry entry : reader.getEntries()) {
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    // Directories are shared, so only the first is kept
+                    if (!writer.contains(name)) {
+                        writer.copy(reader, entry);
+                    }
+                } else if (sources.get(name) == reader) {
+                    if (!writer.contains(name)) {
+                        writer.copy(reader, entry);
+                    } else if (duplicate.equals(ERROR)) {
+                        throw new ZipException("duplicate entry: " + name + " in " + getJar(reader));
+                    }
+                    // Otherwise the jar's own entry takes precedence
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        for (ArchiveReader reader : readers) {
+            reader.close();
+        }
+    }
+
+    private File getJar(ArchiveReader reader) {
+        return jars.get(readers.indexOf(reader));
+    }
+
+    private static List<byte[]> get(Map<String, List<byte[]>> map, String name) {
+        List<byte[]> list = map.get(name);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(name, list);
+        }
+        return list;
+    }
+}
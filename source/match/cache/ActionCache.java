@@ -0,0 +1,165 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import match.Database;
+import match.Hasher;
+import match.IMatch;
+import match.ITarget;
+
+/**
+ * Restores the outputs of targets from a cache, keyed by the fingerprint of the target's action.
+ *
+ * <p>
+ * The fingerprint covers the function, its resolved parameters and the digests of its inputs, with
+ * paths relative to the root directory, so results can be shared between checkouts. The cache key
+ * adds the version of the JVM, which also runs the Java compiler, and the digests of the code of
+ * Match and of the target's function, so a different toolchain never restores stale outputs.
+ * </p>
+ *
+ * <p>
+ * Restored outputs are hashed by the cache as they are copied out, and anything which doesn't match
+ * its digest is a cache miss.
+ * </p>
+ */
+public class ActionCache {
+
+    private final IMatch match;
+    private final Database database;
+    private final ICache cache;
+    private final Map<String, String> identities = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an action cache backed by the given cache.
+     */
+    public ActionCache(IMatch match, Database database, ICache cache) {
+        this.match = match;
+        this.database = database;
+        this.cache = cache;
+    }
+
+    /**
+     * Restores the outputs of the given target from the cache, and provides them.
+     *
+     * <p>
+     * The commands which originally built the outputs are copied into the target's record.
+     * </p>
+     *
+     * @return true iff all the outputs were restored.
+     */
+    public boolean restore(ITarget target, Properties record) throws Exception {
+        Properties action = cache.getAction(getKey(target, record));
+        if (action == null) {
+            return false;
+        }
+        List<File> files = new ArrayList<>();
+        for (String key : action.stringPropertyNames()) {
+            if (key.startsWith(Database.OUTPUT)) {
+                File file = new File(match.getRootDir(), key.substring(Database.OUTPUT.length()));
+                String digest = action.getProperty(key);
+                // The cache hashes the blob, so a corrupt one is a miss
+                if (!cache.getBlob(digest, file)) {
+                    return false;
+                }
+                files.add(file);
+            }
+        }
+        for (String key : action.stringPropertyNames()) {
+            if (key.startsWith(Database.COMMAND)) {
+                record.setProperty(key, action.getProperty(key));
+            }
+        }
+        for (File file : files) {
+            match.provideFile(file);
+        }
+        return true;
+    }
+
+    /**
+     * Saves the outputs of the given target, as recorded in the database, to the cache.
+     *
+     * <p>
+     * Targets with outputs outside the root directory aren't cached, as they can't be restored into
+     * another checkout.
+     * </p>
+     */
+    public void save(ITarget target, Properties record) throws Exception {
+        Properties action = new Properties();
+        for (String key : record.stringPropertyNames()) {
+            if (key.startsWith(Database.COMMAND)) {
+                action.setProperty(key, record.getProperty(key));
+            } else if (key.startsWith(Database.OUTPUT)) {
+                String path = key.substring(Database.OUTPUT.length());
+                String relative = database.relativize(path);
+                if (relative.equals(path)) {
+                    return;
+                }
+                action.setProperty(Database.OUTPUT + relative, record.getProperty(key));
+            }
+        }
+        for (String key : action.stringPropertyNames()) {
+            if (key.startsWith(Database.OUTPUT)) {
+                File file = new File(match.getRootDir(), key.substring(Database.OUTPUT.length()));
+                cache.putBlob(action.getProperty(key), file);
+            }
+        }
+        cache.putAction(getKey(target, record), action);
+    }
+
+    /**
+     * Waits until all the saved outputs have been written to the cache.
+     */
+    public void flush() throws Exception {
+        cache.flush();
+    }
+
+    private String getKey(ITarget target, Properties record) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append(record.getProperty(Database.FINGERPRINT)).append('\n');
+        sb.append(System.getProperty("java.vendor")).append(' ').append(System.getProperty("java.runtime.version")).append('\n');
+        sb.append(getIdentity(ActionCache.class)).append('\n');
+        sb.append(getIdentity(target.getFunction().getClass())).append('\n');
+        return Hasher.hash(sb.toString());
+    }
+
+    /**
+     * Gets the digest of the jar or directory the given class was loaded from.
+     *
+     * @return the digest, or an empty string if the class wasn't loaded from a file.
+     */
+    private String getIdentity(Class<?> type) throws Exception {
+        CodeSource source = type.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null || !source.getLocation().getProtocol().equals("file")) {
+            return "";
+        }
+        File file = new File(source.getLocation().toURI());
+        String identity = identities.get(file.getPath());
+        if (identity == null) {
+            identity = match.getHasher().hash(file);
+            identities.put(file.getPath(), identity);
+        }
+        return identity;
+    }
+}
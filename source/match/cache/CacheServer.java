@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import match.Hasher;
+
+/**
+ * A minimal server for a remote cache, storing entries in a directory with the same layout as a
+ * local cache.
+ *
+ * <p>
+ * It runs inside the JVM, so the remote cache can be tested without a network, or shared by
+ * starting it on a machine every build can reach.
+ * </p>
+ *
+ * <p>
+ * A blob is only stored if its contents hash to the digest it is stored under, so a broken or
+ * racing upload can't poison the cache.
+ * </p>
+ */
+public class CacheServer {
+
+    private static final Pattern PATH = Pattern.compile("/(" + LocalCache.ACTIONS + "|" + LocalCache.BLOBS + ")/[0-9a-f]+");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Creates a server storing entries in the given directory, listening on the given port, or any
+     * free port if the port is 0.
+     */
+    public CacheServer(File directory, int port) throws Exception {
+        this.directory = directory;
+        new File(directory, LocalCache.ACTIONS).mkdirs();
+        new File(directory, LocalCache.BLOBS).mkdirs();
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) {
+                try {
+                    serve(exchange);
+                } catch (Exception e) {
+                    /* ignored */
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Gets the URL for remote caches to access the server with.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Starts handling requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops handling requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws Exception {
+        String path = exchange.getRequestURI().getPath();
+        if (!PATH.matcher(path).matches()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        File file = new File(directory, path.substring(1));
+        String method = exchange.getRequestMethod();
+        if (method.equals("GET")) {
+            if (!file.isFile()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, file.length());
+            InputStream in = new FileInputStream(file);
+            try {
+                copy(in, exchange.getResponseBody());
+            } finally {
+                in.close();
+            }
+        } else if (method.equals("PUT")) {
+            File temp = File.createTempFile(file.getName(), null, file.getParentFile());
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                copy(exchange.getRequestBody(), out);
+            } finally {
+                out.close();
+            }
+            if (file.getParentFile().getName().equals(LocalCache.BLOBS) && !new Hasher().hash(temp).equals(file.getName())) {
+                temp.delete();
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            exchange.sendResponseHeaders(204, -1);
+        } else {
+            exchange.sendResponseHeaders(405, -1);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws Exception {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A store of action results, keyed by action fingerprint, and output blobs, keyed by digest.
+ */
+public interface ICache {
+
+    /**
+     * Gets the result of the action with the given fingerprint.
+     *
+     * @return the action result, or null if it isn't cached.
+     */
+    Properties getAction(String key) throws Exception;
+
+    /**
+     * Stores the result of the action with the given fingerprint.
+     */
+    void putAction(String key, Properties action) throws Exception;
+
+    /**
+     * Copies the blob with the given digest into the given file.
+     *
+     * <p>
+     * A blob whose contents don't hash to its digest is a cache miss, and the file is left as it
+     * was, so a corrupt blob is never copied any further.
+     * </p>
+     *
+     * @return true iff the blob was cached.
+     */
+    boolean getBlob(String digest, File file) throws Exception;
+
+    /**
+     * Stores the given file as the blob with the given digest.
+     */
+    void putBlob(String digest, File file) throws Exception;
+
+    /**
+     * Waits until everything stored in the cache has been written.
+     */
+    void flush() throws Exception;
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A fast cache in front of a slower one, such as a local cache in front of a remote cache.
+ *
+ * <p>
+ * Entries are looked up in the fast cache first, and entries found in the slow cache are copied
+ * into the fast one. Entries are stored in both. The slow cache only returns blobs which match their
+ * digests, so a corrupt blob is never copied into the fast cache.
+ * </p>
+ */
+public class LayeredCache implements ICache {
+
+    private final ICache fast;
+    private final ICache slow;
+
+    /**
+     * Creates a cache which checks the given fast cache before the slow one.
+     */
+    public LayeredCache(ICache fast, ICache slow) {
+        this.fast = fast;
+        this.slow = slow;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Properties getAction(String key) throws Exception {
+        Properties action = fast.getAction(key);
+        if (action == null) {
+            action = slow.getAction(key);
+            if (action != null) {
+                fast.putAction(key, action);
+            }
+        }
+        return action;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAction(String key, Properties action) throws Exception {
+        fast.putAction(key, action);
+        slow.putAction(key, action);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getBlob(String digest, File file) throws Exception {
+        if (fast.getBlob(digest, file)) {
+            return true;
+        }
+        if (slow.getBlob(digest, file)) {
+            fast.putBlob(digest, file);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putBlob(String digest, File file) throws Exception {
+        fast.putBlob(digest, file);
+        slow.putBlob(digest, file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws Exception {
+        fast.flush();
+        slow.flush();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import match.Hasher;
+import match.Utilities;
+
+/**
+ * A cache stored on the local disk, which can be shared by many checkouts of a workspace.
+ *
+ * <p>
+ * Action results are stored under ac/ and blobs under cas/. Every entry is written to a temporary
+ * file and then moved into place, so concurrent builds never see a partial entry. A blob is hashed
+ * whenever it is copied out, and deleted if it has been corrupted, so the next build which needs it
+ * can store a good copy.
+ * </p>
+ */
+public class LocalCache implements ICache {
+
+    public static final String ACTIONS = "ac";
+    public static final String BLOBS = "cas";
+
+    private final File actions;
+    private final File blobs;
+
+    /**
+     * Creates a cache stored in the given directory.
+     */
+    public LocalCache(File directory) {
+        actions = new File(directory, ACTIONS);
+        blobs = new File(directory, BLOBS);
+        actions.mkdirs();
+        blobs.mkdirs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Properties getAction(String key) throws Exception {
+        File file = new File(actions, key);
+        if (!file.exists()) {
+            return null;
+        }
+        return Utilities.readProperties(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAction(String key, Properties action) throws Exception {
+        File temp = File.createTempFile(key, null, actions);
+        Utilities.writeProperties(action, temp);
+        move(temp, new File(actions, key));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getBlob(String digest, File file) throws Exception {
+        File blob = new File(blobs, digest);
+        if (!blob.exists()) {
+            return false;
+        }
+        file.getParentFile().mkdirs();
+        File temp = File.createTempFile(file.getName(), null, file.getParentFile());
+        try {
+            Files.copy(blob.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (!isValid(digest, temp)) {
+                blob.delete();
+                return false;
+            }
+            move(temp, file);
+            return true;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putBlob(String digest, File file) throws Exception {
+        File blob = new File(blobs, digest);
+        if (blob.exists()) {
+            return;
+        }
+        File temp = File.createTempFile(digest, null, blobs);
+        Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        move(temp, blob);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws Exception {
+        // Entries are written straight away
+    }
+
+    /**
+     * Checks that the given file's contents hash to the given digest.
+     */
+    static boolean isValid(String digest, File file) throws Exception {
+        return digest.equals(new Hasher().hash(file));
+    }
+
+    private static void move(File from, File to) throws Exception {
+        Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import match.IMatch;
+
+/**
+ * A cache on a remote server, accessed by GET and PUT requests to /ac/&lt;key&gt; for action
+ * results and /cas/&lt;digest&gt; for blobs.
+ *
+ * <p>
+ * Entries are uploaded in the background, in the order they were stored, so that building isn't
+ * held up by the network and an action result never arrives before the blobs it refers to. A
+ * blob is copied before it is queued, so a build changing the file meanwhile can't change what is
+ * uploaded. A server which can't be reached is treated as a cache miss.
+ * </p>
+ */
+public class RemoteCache implements ICache {
+
+    private static final int TIMEOUT = 10 * 1000;// 10 seconds
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ATTEMPTS = 2;
+
+    private final IMatch match;
+    private final String url;
+    private final ExecutorService uploader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Uploader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates a cache on the server at the given URL.
+     */
+    public RemoteCache(IMatch match, String url) {
+        this.match = match;
+        this.url = url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Properties getAction(String key) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!get(LocalCache.ACTIONS + "/" + key, out)) {
+            return null;
+        }
+        Properties action = new Properties();
+        action.load(new ByteArrayInputStream(out.toByteArray()));
+        return action;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAction(final String key, Properties action) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        action.store(out, null);
+        final byte[] bytes = out.toByteArray();
+        upload(new Runnable() {
+            @Override
+            public void run() {
+                put(LocalCache.ACTIONS + "/" + key, bytes, null);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getBlob(String digest, File file) throws Exception {
+        file.getParentFile().mkdirs();
+        File temp = File.createTempFile(file.getName(), null, file.getParentFile());
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            boolean found;
+            try {
+                found = get(LocalCache.BLOBS + "/" + digest, out);
+            } finally {
+                out.close();
+            }
+            if (found && !LocalCache.isValid(digest, temp)) {
+                match.warn("remote cache has a corrupt blob " + digest);
+                found = false;
+            }
+            if (found) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return found;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putBlob(final String digest, File file) throws Exception {
+        final File copy = File.createTempFile(digest, null);
+        try {
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            copy.delete();
+            throw e;
+        }
+        upload(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(LocalCache.BLOBS + "/" + digest, null, copy);
+                } finally {
+                    copy.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws Exception {
+        // Uploads run one at a time, so once this is done so is everything before it
+        uploader.submit(new Runnable() {
+            @Override
+            public void run() {
+                // nothing
+            }
+        }).get();
+    }
+
+    private void upload(Runnable runnable) {
+        uploader.submit(runnable);
+    }
+
+    private boolean get(String path, OutputStream out) {
+        try {
+            HttpURLConnection connection = open(path);
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    close(connection);
+                    return false;
+                }
+                InputStream in = connection.getInputStream();
+                try {
+                    copy(in, out);
+                } finally {
+                    in.close();
+                }
+                return true;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (Exception e) {
+            match.warn("couldn't download " + path + " from remote cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void put(String path, byte[] bytes, File file) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                InputStream in = bytes != null ? new ByteArrayInputStream(bytes) : new FileInputStream(file);
+                try {
+                    put(path, in, bytes != null ? bytes.length : file.length());
+                } finally {
+                    in.close();
+                }
+                return;
+            } catch (Exception e) {
+                // A kept-alive connection may have been closed by the server, so try once more
+                // on a fresh connection before giving up
+                if (attempt == ATTEMPTS) {
+                    match.warn("couldn't upload " + path + " to remote cache: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    private void put(String path, InputStream in, long length) throws Exception {
+        HttpURLConnection connection = open(path);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                copy(in, out);
+            } finally {
+                out.close();
+            }
+            int code = connection.getResponseCode();
+            if (code / 100 != 2) {
+                close(connection);
+                throw new Exception("server responded " + code);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void close(HttpURLConnection connection) throws Exception {
+        // Reading the rest of an error response lets the connection be reused
+        InputStream in = connection.getErrorStream();
+        if (in != null) {
+            copy(in, new ByteArrayOutputStream());
+            in.close();
+        }
+    }
+
+    private HttpURLConnection open(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        return connection;
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws Exception {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+}
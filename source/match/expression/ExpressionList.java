@@ -37,6 +37,13 @@ public class ExpressionList extends Expression {
         this.elements = elements;
     }
 
+    /**
+     * Gets the expressions in the list, without resolving them.
+     */
+    public List<IExpression> getElements() {
+        return Collections.unmodifiableList(elements);
+    }
+
     /**
      * {@inheritDoc}
      */
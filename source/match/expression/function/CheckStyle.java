@@ -68,6 +68,7 @@ public class CheckStyle extends Function {
     public void configure() {
         match.addFile(output);
         match.setProperty(name, output);
+        match.requireProperty("checkstyle");
         source.configure();
     }
 
@@ -86,4 +87,12 @@ public class CheckStyle extends Function {
         }
         return output;
     }
-}
\ No newline at end of file
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+}
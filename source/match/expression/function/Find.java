@@ -21,24 +21,39 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import match.FileTree;
+import match.Glob;
 import match.IMatch;
+import match.Ignore;
 import match.ITarget;
 import match.expression.IExpression;
 import match.expression.Literal;
 
 /**
- * Finds all files in the given directory, optionally matching the given pattern.
+ * Finds all files in the given directory, optionally matching the given pattern, or the given
+ * include and exclude globs.
+ *
+ * <p>
+ * Globs are relative to the directory, with "**" matching any number of directories, and
+ * directories which can't contain a match are skipped without being searched.
+ * </p>
  */
 public class Find extends Function {
 
+    public static final String EXCLUDE = "exclude";
+    public static final String INCLUDE = "include";
+
     private IExpression directory;
     private IExpression pattern;
+    private IExpression include;
+    private IExpression exclude;
     private Set<String> files = new HashSet<String>();
 
     /**
@@ -46,13 +61,21 @@ public class Find extends Function {
      */
     public Find(IMatch match, ITarget target, Map<String, IExpression> parameters) {
         super(match, target, parameters);
+        if (hasParameter(INCLUDE)) {
+            include = getParameter(INCLUDE);
+        }
+        if (hasParameter(EXCLUDE)) {
+            exclude = getParameter(EXCLUDE);
+        }
         if (hasParameter(DIRECTORY)) {
             directory = getParameter(DIRECTORY);
-            pattern = getParameter(PATTERN);
+            if (include == null && exclude == null) {
+                pattern = getParameter(PATTERN);
+            }
         } else {
             directory = getParameter(ANONYMOUS);
         }
-        target.setName("Find:" + pattern + " " + directory);
+        target.setName("Find:" + (pattern == null && include != null ? include : pattern) + " " + directory);
     }
 
     /**
@@ -75,9 +98,16 @@ public class Find extends Function {
         if (!path.isEmpty()) {
             path += "/";
         }
-        // System.out.println("Searching path " + path);
-        scanFiles(dirFile, path, files, pattern == null ? ".*" : pattern.resolve());
-        // System.out.println("Found " + files);
+        if (pattern != null) {
+            findFiles(this.match, dirFile, path, files, Pattern.compile(pattern.resolve()));
+        } else {
+            List<String> includes = include == null ? Collections.singletonList("**") : include.resolveList();
+            List<String> excludes = exclude == null ? Collections.<String>emptyList() : exclude.resolveList();
+            findFiles(this.match, dirFile, path, files, new Glob(includes, excludes));
+        }
+        for (String file : files) {
+            this.match.requireFile(new File(matchDir, file).toPath().normalize().toAbsolutePath().toString());
+        }
     }
 
     /**
@@ -95,6 +125,51 @@ public class Find extends Function {
         return fs;
     }
 
+    /**
+     * Finds all files in the given directory matching the given pattern, adding them to the given
+     * collection.
+     *
+     * <p>
+     * The files are looked up in the file tree if the directory is in it, so the directory is only
+     * listed from disk if it was neither scanned nor added to the build.
+     * </p>
+     */
+    public static void findFiles(IMatch match, File directory, String path, Collection<String> files, Pattern pattern) {
+        FileTree tree = match.getFileTree();
+        List<String> found = tree == null ? null : tree.list(directory.toPath().normalize().toAbsolutePath().toString());
+        if (found == null) {
+            scanFiles(directory, path, files, pattern, match.getIgnore());
+            return;
+        }
+        for (String file : found) {
+            String filename = file.substring(file.lastIndexOf('/') + 1);
+            String fullname = path + file;
+            if (pattern.matcher(filename).matches() || pattern.matcher(fullname).matches()) {
+                files.add(fullname);
+            }
+        }
+    }
+
+    /**
+     * Finds all files in the given directory matching the given glob, adding them to the given
+     * collection.
+     *
+     * <p>
+     * Directories which can't contain a match aren't searched, whether in the file tree or on disk.
+     * </p>
+     */
+    public static void findFiles(IMatch match, File directory, String path, Collection<String> files, Glob glob) {
+        FileTree tree = match.getFileTree();
+        List<String> found = tree == null ? null : tree.list(directory.toPath().normalize().toAbsolutePath().toString(), glob);
+        if (found == null) {
+            scanFiles(directory, path, files, glob.getStart(), match.getIgnore());
+            return;
+        }
+        for (String file : found) {
+            files.add(path + file);
+        }
+    }
+
     /**
      * Scans the given directory adding all files matching the given pattern to the given collection.
      */
@@ -106,16 +181,48 @@ public class Find extends Function {
      * Scans the given directory adding all files matching the given pattern to the given collection.
      */
     public static void scanFiles(File directory, String path, Collection<String> files, Pattern pattern) {
+        scanFiles(directory, path, files, pattern, null);
+    }
+
+    /**
+     * Scans the given directory adding all files matching the given pattern to the given collection,
+     * skipping any files and directories the given rules ignore.
+     */
+    public static void scanFiles(File directory, String path, Collection<String> files, Pattern pattern, Ignore ignore) {
         for (File file : directory.listFiles()) {
             String filename = file.getName();
             String fullname = path + filename;
-            if (file.isFile()) {
+            boolean isFile = file.isFile();
+            if (ignore != null && ignore.isIgnored(file.toPath(), !isFile)) {
+                continue;
+            }
+            if (isFile) {
                 if (pattern.matcher(filename).matches()
                         || pattern.matcher(fullname).matches()) {
                     files.add(fullname);
                 }
             } else {
-                scanFiles(file, fullname + "/", files, pattern);
+                scanFiles(file, fullname + "/", files, pattern, ignore);
+            }
+        }
+    }
+
+    private static void scanFiles(File directory, String path, Collection<String> files, Glob.State state, Ignore ignore) {
+        for (File file : directory.listFiles()) {
+            String filename = file.getName();
+            boolean isFile = file.isFile();
+            if (ignore != null && ignore.isIgnored(file.toPath(), !isFile)) {
+                continue;
+            }
+            if (isFile) {
+                if (state.matches(filename)) {
+                    files.add(path + filename);
+                }
+            } else {
+                Glob.State next = state.enter(filename);
+                if (next != null) {
+                    scanFiles(file, path + filename + "/", files, next, ignore);
+                }
             }
         }
     }
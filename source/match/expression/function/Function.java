@@ -17,32 +17,49 @@
 package match.expression.function;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 
+import match.Hasher;
 import match.IMatch;
 import match.ITarget;
+import match.archive.ArchiveWriter;
+import match.archive.JarMerger;
 import match.expression.Expression;
+import match.expression.ExpressionList;
 import match.expression.IExpression;
+import match.expression.Literal;
+import match.java.IncrementalCompiler;
+import match.java.Javac;
 
 /**
  * Base class of build functions.
  */
 public abstract class Function extends Expression implements IFunction {
 
+    public static final String ABI_OUTPUT = "out/java/abi/";
     public static final String ANONYMOUS = "-";
     public static final String CLASS_OUTPUT = "out/java/classes/";
     public static final String DIRECTORY = "directory";
     public static final String EXTENSION = "extension";
     public static final String FILE = "file";
+    public static final String HEADER_OUTPUT = "out/java/header/";
+    public static final String INCREMENTAL_OUTPUT = "out/java/incremental/";
     public static final String JAR_OUTPUT = "out/java/jar/";
     public static final String JAVA_OUTPUT = "out/java/generated/";
     public static final String FIND_RM_COMMAND = "find %s -name %s -print0 | xargs -0 rm";
     public static final String LIBRARY = "library";
     public static final String LOCATION = "location";
-    public static final String MANIFEST_OUTPUT = "out/java/manifest/";
     public static final String MKDIR_COMMAND = "mkdir -p %s";
     public static final String NAME = "name";
     public static final String PATTERN = "pattern";
@@ -94,6 +111,210 @@ public abstract class Function extends Expression implements IFunction {
         return parameter;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, IExpression> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReproducible() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Gets the strings written literally in the given expression, without resolving it.
+     *
+     * <p>
+     * Properties may not have been set while configuring, so this is how the names a function
+     * requires are declared. Any functions in the expression declare their own inputs when they are
+     * configured, and are only resolved when building.
+     * </p>
+     */
+    protected static List<String> getLiterals(IExpression expression) {
+        List<String> literals = new ArrayList<>();
+        if (expression instanceof Literal) {
+            literals.add(expression.resolve());
+        } else if (expression instanceof ExpressionList) {
+            for (IExpression element : ((ExpressionList) expression).getElements()) {
+                literals.addAll(getLiterals(element));
+            }
+        }
+        return literals;
+    }
+
+    /**
+     * Compiles the given Java source code into the given directory, inside the JVM if possible and
+     * otherwise by running the given javac command.
+     */
+    protected void compile(List<String> classpath, List<String> sources, String directory, String command) {
+        compile(classpath, Collections.<String, String>emptyMap(), sources, directory, null, command);
+    }
+
+    /**
+     * Compiles the given Java source code into the given directory, as above, but when compiling
+     * inside the JVM only recompiles what changed since the compile recorded in the given state
+     * file, using the given ABI digests of jars on the classpath to tell whether they changed.
+     */
+    protected void compile(List<String> classpath, Map<String, String> interfaces, List<String> sources, String directory, File state, String command) {
+        Javac javac = match.getCompiler();
+        if (javac == null) {
+            if (state != null) {
+                // The classes won't match the recorded state any more
+                state.delete();
+            }
+            target.runCommand(command);
+            return;
+        }
+        target.recordCommand(command);
+        StringWriter errors = new StringWriter();
+        try {
+            File matchDir = target.getDirectory();
+            File output = new File(matchDir, directory);
+            boolean compiled;
+            if (state == null) {
+                compiled = javac.compile(classpath, sources, matchDir, output, errors);
+            } else {
+                Hasher hasher = match.getHasher();
+                compiled = new IncrementalCompiler(javac, hasher == null ? new Hasher() : hasher).compile(classpath, interfaces, sources, matchDir, output, state, errors);
+            }
+            if (compiled) {
+                return;
+            }
+        } catch (Exception e) {
+            match.error(e);
+            return;
+        }
+        for (String line : errors.toString().split("\\r?\\n")) {
+            match.println(String.format("error: %s", line));
+        }
+        match.error("error: " + command);
+    }
+
+    /**
+     * Packages the classes in the given directory and the given resources into a jar, recording
+     * the equivalent jar command.
+     *
+     * @param mainClass the class to run the jar with, or null.
+     */
+    protected void writeJar(File jar, String classes, String mainClass, List<String> resources, String command) {
+        writeJar(jar, classes, mainClass, resources, null, command);
+    }
+
+    /**
+     * Packages the classes in the given directory and the given resources into a jar along with
+     * the entries of libraries, recording the equivalent jar command.
+     *
+     * @param mainClass the class to run the jar with, or null.
+     * @param merger the libraries to merge into the jar, or null.
+     */
+    protected void writeJar(File jar, String classes, String mainClass, List<String> resources, JarMerger merger, String command) {
+        target.recordCommand(command);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (mainClass != null) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        }
+        File matchDir = target.getDirectory();
+        try {
+            ArchiveWriter writer = new ArchiveWriter(jar, manifest);
+            try {
+                File directory = new File(matchDir, classes);
+                if (merger != null) {
+                    // The jar's own service files are combined with the libraries', so are added first
+                    Map<String, File> files = new TreeMap<>();
+                    collect(merger, "", directory, files);
+                    for (String resource : resources) {
+                        collect(merger, getEntryName(resource), getFile(resource), files);
+                    }
+                    merger.addMerged(writer, files);
+                }
+                writer.addContents(directory);
+                for (String resource : resources) {
+                    add(writer, resource);
+                }
+                if (merger != null) {
+                    merger.addEntries(writer);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (Exception e) {
+            match.error(e);
+        }
+    }
+
+    /**
+     * Writes a zip file of the given sources, recording the given equivalent command.
+     *
+     * <p>
+     * Like the zip tool, sources are named by the path they were given as, and directories are
+     * added along with everything under them. Sources which haven't changed since the zip was last
+     * written are copied from it without being compressed again.
+     * </p>
+     */
+    protected void writeZip(File zip, List<String> sources, String command) {
+        target.recordCommand(command);
+        try {
+            ArchiveWriter writer = new ArchiveWriter(zip, null, true);
+            try {
+                for (String source : sources) {
+                    add(writer, source);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (Exception e) {
+            match.error(e);
+        }
+    }
+
+    private void add(ArchiveWriter writer, String resource) throws Exception {
+        writer.add(getEntryName(resource), getFile(resource));
+    }
+
+    private File getFile(String resource) {
+        File file = new File(resource);
+        if (!file.isAbsolute()) {
+            file = new File(target.getDirectory(), resource);
+        }
+        return file;
+    }
+
+    private String getEntryName(String resource) {
+        // Like the jar and zip tools, files are named by the path they were given as, with an
+        // absolute path only losing its leading separator
+        Path path = Paths.get(resource).normalize();
+        if (path.isAbsolute()) {
+            path = path.getRoot().relativize(path);
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    private static void collect(JarMerger merger, String name, File file, Map<String, File> files) {
+        String[] children = file.list();
+        if (children != null) {
+            for (String child : children) {
+                collect(merger, name.isEmpty() ? child : name + "/" + child, new File(file, child), files);
+            }
+        } else if (merger.isMerged(name)) {
+            files.put(name, file);
+        }
+    }
+
     /**
      * Returns an instance of the function with the given name.
      */
@@ -44,6 +44,14 @@ public class Get extends Function {
         target.setName("Get:" + key);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configure() {
+        match.requireProperty(key);
+    }
+
     /**
      * {@inheritDoc}
      */
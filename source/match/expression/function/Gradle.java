@@ -84,6 +84,9 @@ public class Gradle extends Function {
             task.configure();
             if (require != null) {
                 require.configure();
+                for (String r : getLiterals(require)) {
+                    match.requireProperty(r);
+                }
             }
         }
     }
@@ -126,4 +129,12 @@ public class Gradle extends Function {
         return output;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReproducible() {
+        // Gradle tracks its own inputs, so always let it decide what to build
+        return false;
+    }
 }
\ No newline at end of file
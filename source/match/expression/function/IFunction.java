@@ -16,6 +16,8 @@
 
 package match.expression.function;
 
+import java.util.Map;
+
 import match.expression.IExpression;
 
 public interface IFunction extends IExpression {
@@ -29,4 +31,21 @@ public interface IFunction extends IExpression {
      * Returns the parameter for the given key.
      */
     IExpression getParameter(String key);
+
+    /**
+     * Returns all the parameters, keyed by name.
+     */
+    Map<String, IExpression> getParameters();
+
+    /**
+     * Returns true iff the function's outputs depend only on its parameters and input files, so
+     * it can be skipped when they haven't changed.
+     */
+    boolean isReproducible();
+
+    /**
+     * Returns true iff the function's outputs are worth restoring from the cache instead of
+     * building them again.
+     */
+    boolean isCacheable();
 }
@@ -70,6 +70,9 @@ public class JavaJUnit extends Function {
     public void configure() {
         match.addFile(output);
         match.setProperty(name, output);
+        for (String library : getLibraries()) {
+            match.requireProperty(library);
+        }
     }
 
     /**
@@ -78,16 +81,7 @@ public class JavaJUnit extends Function {
     @Override
     public String resolve() {
         List<String> libraries = new ArrayList<>();
-        Set<String> libs = new HashSet<>();
-        libs.add("junit");
-        libs.add("hamcrest-core");
-        libs.add("mockito-all");
-        if (hasParameter(LIBRARY)) {
-            for (String library : getParameter(LIBRARY).resolveList()) {
-                libs.add(library);
-            }
-        }
-        for (String library : libs) {
+        for (String library : getLibraries()) {
             String path = match.getProperty(library);
             match.awaitFile(path);
             libraries.add(path);
@@ -101,4 +95,25 @@ public class JavaJUnit extends Function {
         }
         return output;
     }
+
+    private Set<String> getLibraries() {
+        Set<String> libs = new HashSet<>();
+        libs.add("junit");
+        libs.add("hamcrest-core");
+        libs.add("mockito-all");
+        if (hasParameter(LIBRARY)) {
+            for (String library : getParameter(LIBRARY).resolveList()) {
+                libs.add(library);
+            }
+        }
+        return libs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
@@ -18,6 +18,7 @@ package match.expression.function;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -28,29 +29,52 @@ import java.util.regex.Pattern;
 import match.IMatch;
 import match.ITarget;
 import match.Utilities;
+import match.archive.JarMerger;
 import match.expression.IExpression;
 import match.expression.Literal;
+import match.java.Abi;
+import match.java.HeaderJar;
 
 /**
  * A function to compile Java source code and package into a jar file.
+ *
+ * <p>
+ * Jars which depend on this one compile against its header jar, published under name:header. The
+ * header jar is written from the compiled classes, so it is only published once the whole of this
+ * jar has compiled. Dependents overlap their compile with the packaging of this jar, not with its
+ * compilation.
+ * </p>
+ *
+ * <p>
+ * With fat-jar set, the entries of the libraries are merged into the jar so it can be deployed on
+ * its own. An entry in more than one library is taken from the first, unless duplicate is set to
+ * "last" or "error", and entries matching the merge patterns, by default service files, are
+ * combined.
+ * </p>
  */
 public class JavaJar extends Function {
 
-    public static final String ECHO_COMMAND = "echo \"Manifest-Version: 1.0\nMain-Class: %s\" > %s";
-    public static final String JAR_COMMAND = "jar cfm %s %s %s -C %s .";
+    public static final String ABI = ":abi";
+    public static final String DUPLICATE = "duplicate";
+    public static final String FAT_JAR = "fat-jar";
+    public static final String HEADER = ":header";
+    public static final String JAR_COMMAND = "jar cfe %s %s %s -C %s .";
     public static final String JAVAC_COMMAND = "javac %s %s -d %s";
     public static final String MAIN_CLASS = "main-class";
+    public static final String MERGE = "merge";
 
     private IExpression source;
     private IExpression resource;
     private IExpression mainClass;
     private String name;
-    private File manifestFile;
-    private String manifest;
     private String intermediateClasses;
-    private String intermediateManifests;
     private String output;
     private File outputFile;
+    private String abi;
+    private File abiFile;
+    private String header;
+    private File headerFile;
+    private boolean isFat;
 
     /**
      * Initializes the function with the given parameters.
@@ -70,10 +94,12 @@ public class JavaJar extends Function {
         if (hasParameter(RESOURCE)) {
             resource = getParameter(RESOURCE);
         }
-        intermediateManifests = String.format("%s%s/", MANIFEST_OUTPUT, name);
-        manifestFile = new File(target.getDirectory(), intermediateManifests + "MANIFEST.MF");
-        manifest = manifestFile.toPath().normalize().toAbsolutePath().toString();
         mainClass = getParameter(MAIN_CLASS);
+        abiFile = new File(target.getDirectory(), ABI_OUTPUT + name);
+        abi = abiFile.toPath().normalize().toAbsolutePath().toString();
+        headerFile = new File(target.getDirectory(), HEADER_OUTPUT + name + ".jar");
+        header = headerFile.toPath().normalize().toAbsolutePath().toString();
+        isFat = hasParameter(FAT_JAR) && getParameter(FAT_JAR).resolve().equals("true");
     }
 
     /**
@@ -81,13 +107,26 @@ public class JavaJar extends Function {
      */
     @Override
     public void configure() {
-        match.addFile(manifest);
         match.addFile(output);
+        match.addFile(abi);
+        match.addFile(header);
         match.setProperty(name, output);
+        match.setProperty(name + ABI, abi);
+        match.setProperty(name + HEADER, header);
         source.configure();
         if (resource != null) {
             resource.configure();
         }
+        if (hasParameter(LIBRARY)) {
+            for (String library : getLiterals(getParameter(LIBRARY))) {
+                // Only changes to the interface of other jars built by JavaJar affect this jar
+                match.requireProperty(library + ABI, library);
+                if (isFat) {
+                    // The whole library goes into the jar
+                    match.requireProperty(library);
+                }
+            }
+        }
     }
 
     /**
@@ -96,29 +135,96 @@ public class JavaJar extends Function {
     @Override
     public String resolve() {
         List<String> libraries = new ArrayList<String>();
+        Map<String, String> interfaces = new HashMap<String, String>();
+        List<File> jars = new ArrayList<File>();
         String javacClasspath = "";
-        // TODO consider extract libraries into intermediate classes directory
         if (hasParameter(LIBRARY)) {
             for (String library : getParameter(LIBRARY).resolveList()) {
-                String path = match.getProperty(library);
+                String path;
+                if (match.hasProperty(library + HEADER)) {
+                    // Compile against the header jar, so there's no need to wait for the library
+                    // to be packaged
+                    path = match.getProperty(library + HEADER);
+                    String digest = match.getProperty(library + ABI);
+                    match.awaitFile(digest);
+                    interfaces.put(path, read(digest));
+                } else {
+                    path = match.getProperty(library);
+                }
                 match.awaitFile(path);
                 libraries.add(path);
+                if (isFat) {
+                    String jar = match.getProperty(library);
+                    match.awaitFile(jar);
+                    jars.add(new File(jar));
+                }
             }
             javacClasspath = String.format("-cp %s", Utilities.join(":", libraries));
         }
         target.runCommand(String.format(MKDIR_COMMAND, intermediateClasses));
-        target.runCommand(String.format(MKDIR_COMMAND, intermediateManifests));
-        target.runCommand(String.format(MKDIR_COMMAND, JAR_OUTPUT));
-        target.runCommand(String.format(ECHO_COMMAND, mainClass.resolve(), manifest));
-        match.provideFile(manifestFile);
         // Compile java
-        target.runCommand(String.format(JAVAC_COMMAND, javacClasspath, Utilities.join(" ", source.resolveList()), intermediateClasses));
+        List<String> sources = source.resolveList();
+        File state = new File(target.getDirectory(), INCREMENTAL_OUTPUT + name);
+        compile(libraries, interfaces, sources, intermediateClasses, state, String.format(JAVAC_COMMAND, javacClasspath, Utilities.join(" ", sources), intermediateClasses));
+        // Publish the interface of the classes for jars built against them. This needs the class
+        // files, so it waits for the whole compile and only saves dependents the packaging time
+        try {
+            File classes = new File(target.getDirectory(), intermediateClasses);
+            HeaderJar.write(classes, headerFile);
+            abiFile.getParentFile().mkdirs();
+            Utilities.writeStringToFile(Abi.digest(classes), abiFile);
+        } catch (Exception e) {
+            match.error(e);
+        }
+        match.provideFile(headerFile);
+        match.provideFile(abiFile);
         // Add to the build
         match.addDirectory(new File(target.getDirectory(), intermediateClasses));
         // Package jar
-        String resources = (resource == null) ? "" : Utilities.join(" ", resource.resolveList());
-        target.runCommand(String.format(JAR_COMMAND, output, manifest, resources, intermediateClasses));
+        List<String> resources = (resource == null) ? new ArrayList<String>() : resource.resolveList();
+        String main = mainClass.resolve();
+        String command = String.format(JAR_COMMAND, output, main, Utilities.join(" ", resources), intermediateClasses);
+        if (isFat) {
+            writeFatJar(jars, main, resources, command);
+        } else {
+            writeJar(outputFile, intermediateClasses, main, resources, command);
+        }
         match.provideFile(outputFile);
         return output;
     }
+
+    private void writeFatJar(List<File> jars, String main, List<String> resources, String command) {
+        String duplicate = hasParameter(DUPLICATE) ? getParameter(DUPLICATE).resolve() : JarMerger.FIRST;
+        List<Pattern> merged = new ArrayList<Pattern>();
+        for (String pattern : hasParameter(MERGE) ? getParameter(MERGE).resolveList() : Collections.singletonList(JarMerger.SERVICES)) {
+            merged.add(Pattern.compile(pattern));
+        }
+        try {
+            JarMerger merger = new JarMerger(jars, duplicate, merged);
+            try {
+                writeJar(outputFile, intermediateClasses, main, resources, merger, command);
+            } finally {
+                merger.close();
+            }
+        } catch (Exception e) {
+            match.error(e);
+        }
+    }
+
+    private String read(String file) {
+        try {
+            return Utilities.readFileToString(new File(file));
+        } catch (Exception e) {
+            match.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
@@ -18,12 +18,14 @@ package match.expression.function;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import match.Glob;
 import match.IMatch;
 import match.ITarget;
 import match.Utilities;
@@ -75,6 +77,7 @@ public class Protobuf extends Function {
     public void configure() {
         match.addFile(output);
         match.setProperty(name, output);
+        match.requireProperty(isLite ? "protobuf-lite" : "protobuf");
         source.configure();
     }
 
@@ -86,7 +89,6 @@ public class Protobuf extends Function {
         File matchDir = target.getDirectory();
         target.runCommand(String.format(MKDIR_COMMAND, intermediateClasses));
         target.runCommand(String.format(MKDIR_COMMAND, intermediateJava));
-        target.runCommand(String.format(MKDIR_COMMAND, JAR_OUTPUT));
         // Compile protos
         if (isLite) {
             target.runCommand(String.format(PROTOC_LITE_COMMAND, matchDir, intermediateJava, Utilities.join(" ", source.resolveList())));
@@ -99,17 +101,25 @@ public class Protobuf extends Function {
         // Get the relative paths of all java files generated
         String path = directory.toPath().toString() + "/";
         Set<String> sources = new HashSet<String>();
-        Find.scanFiles(directory, path, sources, ".*.java");
+        Find.findFiles(match, directory, path, sources, Glob.of("**/*.java"));
         // Get library
         String library = match.getProperty(isLite ? "protobuf-lite" : "protobuf");
         match.awaitFile(library);
         // Compile java
-        target.runCommand(String.format(JAVAC_COMMAND, library, Utilities.join(" ", sources), intermediateClasses));
+        compile(Collections.singletonList(library), new ArrayList<String>(sources), intermediateClasses, String.format(JAVAC_COMMAND, library, Utilities.join(" ", sources), intermediateClasses));
         // Add to the build
         match.addDirectory(new File(matchDir, intermediateClasses));
         // Package jar
-        target.runCommand(String.format(JAR_COMMAND, output, intermediateClasses));
+        writeJar(outputFile, intermediateClasses, null, Collections.<String>emptyList(), String.format(JAR_COMMAND, output, intermediateClasses));
         match.provideFile(outputFile);
         return output;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
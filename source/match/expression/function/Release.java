@@ -66,6 +66,10 @@ public class Release extends Function {
     public void configure() {
         require.configure();
         channel.configure();
+        for (String r : getLiterals(require)) {
+            match.requireProperty(r);
+        }
+        match.requireProperty(source);
     }
 
     /**
@@ -88,4 +92,13 @@ public class Release extends Function {
         }
         return "";
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReproducible() {
+        // Channels publish outside the workspace where nothing can check they still hold the release
+        return false;
+    }
 }
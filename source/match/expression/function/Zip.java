@@ -18,13 +18,9 @@ package match.expression.function;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
 
 import match.IMatch;
 import match.ITarget;
@@ -58,7 +54,6 @@ public class Zip extends Function {
         source = getParameter(SOURCE);
         outputFile = new File(target.getDirectory(), ZIP_OUTPUT + name + ".zip");
         output = outputFile.toPath().normalize().toAbsolutePath().toString();
-        // TODO ensure zip isn't re-created if the inputs haven't been modified
     }
 
     /**
@@ -76,20 +71,18 @@ public class Zip extends Function {
      */
     @Override
     public String resolve() {
-        // Collect sources
-        Set<String> sources = new HashSet<String>();
-        sources.addAll(source.resolveList());
-        System.out.println("Zip Sources: " + sources);
-        List<String> sortedList = new ArrayList<String>(sources);
-        Collections.sort(sortedList);
-        String sourcesString = Utilities.join(" ", sortedList);
-        System.out.println("Zip Sources: " + sourcesString);
-
-        // Create output directory
-        target.runCommand(String.format(MKDIR_COMMAND, ZIP_OUTPUT));
-        // Create zip
-        target.runCommand(String.format(ZIP_COMMAND, output, sourcesString));
+        // Collect sources, sorted so the zip is the same every time
+        List<String> sources = new ArrayList<String>(new TreeSet<String>(source.resolveList()));
+        writeZip(outputFile, sources, String.format(ZIP_COMMAND, output, Utilities.join(" ", sources)));
         match.provideFile(outputFile);
         return output;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
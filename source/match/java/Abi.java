@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import match.Hasher;
+
+/**
+ * Computes digests of the application binary interface of compiled classes, covering everything
+ * other classes can compile against but nothing about how the classes are implemented.
+ *
+ * <p>
+ * The digest covers each accessible class's name, modifiers, superclass, interfaces and generic
+ * signature, along with the names, modifiers, descriptors, generic signatures and thrown exceptions
+ * of its non-private fields and methods, and the values of its constants, as those are inlined into
+ * the classes using them. Package-private members are included as classes in the same package
+ * could be compiled separately. Private members, anonymous and local classes and method bodies
+ * aren't included, so changing them leaves the digest unchanged.
+ * </p>
+ *
+ * <p>
+ * Annotations kept in the class file are included, along with the defaults of annotation
+ * elements, as compilers and annotation processors read them. So are the permitted subclasses of
+ * a sealed class and the components of a record, since both change what other classes can
+ * compile. Constants are resolved, so the layout of the constant pool doesn't matter.
+ * </p>
+ */
+public final class Abi {
+
+    // Modifiers which only affect how a method is implemented
+    private static final int IMPLEMENTATION = 0x0020 | 0x0100 | 0x0800;
+
+    private Abi() {}
+
+    /**
+     * Computes the digest of all the classes under the given directory.
+     *
+     * @return the digest, which is the same for any two directories exposing the same interface.
+     */
+    public static String digest(File directory) throws Exception {
+        List<String> descriptions = new ArrayList<>();
+        describe(directory, descriptions);
+        Collections.sort(descriptions);
+        StringBuilder sb = new StringBuilder();
+        for (String description : descriptions) {
+            sb.append(description);
+        }
+        return Hasher.hash(sb.toString());
+    }
+
+    /**
+     * Describes the interface of the given class in a canonical form.
+     *
+     * @return the description, or an empty string if the class isn't accessible from other classes.
+     */
+    public static String describe(ClassFile classFile) throws Exception {
+        int access = classFile.getAccess();
+        ClassFile.Attribute inner = classFile.getAttribute("InnerClasses");
+        if (inner != null) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(inner.getInfo()));
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int innerClass = in.readUnsignedShort();
+                int outerClass = in.readUnsignedShort();
+                int innerName = in.readUnsignedShort();
+                int innerAccess = in.readUnsignedShort();
+                if (classFile.getName().equals(classFile.getConstant(innerClass))) {
+                    if (outerClass == 0 || innerName == 0 || (innerAccess & ClassFile.ACC_PRIVATE) != 0) {
+                        // Anonymous, local and private classes can't be referred to by other classes
+                        return "";
+                    }
+                    access = innerAccess;
+                }
+            }
+        }
+        if ((access & ClassFile.ACC_SYNTHETIC) != 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("class ").append(classFile.getName()).append(' ').append(access);
+        sb.append(" extends ").append(classFile.getSuperName());
+        sb.append(" implements ").append(classFile.getInterfaces());
+        sb.append(' ').append(getSignature(classFile, classFile.getAttribute("Signature")));
+        sb.append(getAnnotations(classFile, classFile.getAttributes()));
+        ClassFile.Attribute permitted = classFile.getAttribute("PermittedSubclasses");
+        if (permitted != null) {
+            sb.append(" permits ").append(getClassNames(classFile, permitted));
+        }
+        ClassFile.Attribute record = classFile.getAttribute("Record");
+        if (record != null) {
+            sb.append(" record ").append(getComponents(classFile, record));
+        }
+        sb.append('\n');
+        List<String> members = new ArrayList<>();
+        for (ClassFile.Member field : classFile.getFields()) {
+            if (isAccessible(field)) {
+                ClassFile.Attribute value = field.getAttribute("ConstantValue");
+                members.add("field " + field.getName() + ' ' + field.getDescriptor() + ' ' + field.getAccess()
+                        + ' ' + getSignature(classFile, field.getAttribute("Signature"))
+                        + (value == null ? "" : " = " + classFile.getConstant(value.getIndex()))
+                        + getAnnotations(classFile, field.getAttributes()));
+            }
+        }
+        for (ClassFile.Member method : classFile.getMethods()) {
+            if (isAccessible(method)) {
+                members.add("method " + method.getName() + method.getDescriptor() + ' ' + (method.getAccess() & ~IMPLEMENTATION)
+                        + ' ' + getSignature(classFile, method.getAttribute("Signature"))
+                        + " throws " + getClassNames(classFile, method.getAttribute("Exceptions"))
+                        + getAnnotations(classFile, method.getAttributes()));
+            }
+        }
+        Collections.sort(members);
+        for (String member : members) {
+            sb.append(member).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void describe(File file, List<String> descriptions) throws Exception {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                describe(child, descriptions);
+            }
+        } else if (file.getName().endsWith(".class")) {
+            descriptions.add(describe(ClassFile.read(file)));
+        }
+    }
+
+    private static boolean isAccessible(ClassFile.Member member) {
+        return (member.getAccess() & (ClassFile.ACC_PRIVATE | ClassFile.ACC_SYNTHETIC)) == 0;
+    }
+
+    private static String getSignature(ClassFile classFile, ClassFile.Attribute signature) {
+        return signature == null ? "" : (String) classFile.getConstant(signature.getIndex());
+    }
+
+    /**
+     * Describes the annotations and annotation element default among the given attributes.
+     */
+    private static String getAnnotations(ClassFile classFile, List<ClassFile.Attribute> attributes) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (ClassFile.Attribute attribute : attributes) {
+            appendAnnotations(classFile, attribute.getName(), attribute.getInfo(), sb);
+        }
+        return sb.toString();
+    }
+
+    private static void appendAnnotations(ClassFile classFile, String name, byte[] info, StringBuilder sb) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(info));
+        switch (name) {
+        case "RuntimeVisibleAnnotations":
+        case "RuntimeInvisibleAnnotations":
+            sb.append(' ').append(name).append(' ');
+            appendAnnotations(classFile, in, sb);
+            break;
+        case "RuntimeVisibleParameterAnnotations":
+        case "RuntimeInvisibleParameterAnnotations":
+            sb.append(' ').append(name);
+            int parameters = in.readUnsignedByte();
+            for (int i = 0; i < parameters; i++) {
+                sb.append(' ');
+                appendAnnotations(classFile, in, sb);
+            }
+            break;
+        case "AnnotationDefault":
+            sb.append(" default ");
+            appendValue(classFile, in, sb);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void appendAnnotations(ClassFile classFile, DataInputStream in, StringBuilder sb) throws Exception {
+        int count = in.readUnsignedShort();
+        sb.append('[');
+        for (int i = 0; i < count; i++) {
+            appendAnnotation(classFile, in, sb);
+        }
+        sb.append(']');
+    }
+
+    private static void appendAnnotation(ClassFile classFile, DataInputStream in, StringBuilder sb) throws Exception {
+        sb.append('@').append(classFile.getConstant(in.readUnsignedShort())).append('(');
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            sb.append(classFile.getConstant(in.readUnsignedShort())).append('=');
+            appendValue(classFile, in, sb);
+            sb.append(',');
+        }
+        sb.append(')');
+    }
+
+    private static void appendValue(ClassFile classFile, DataInputStream in, StringBuilder sb) throws Exception {
+        char tag = (char) in.readUnsignedByte();
+        sb.append(tag);
+        switch (tag) {
+        case 'e':
+            sb.append(classFile.getConstant(in.readUnsignedShort())).append('.');
+            sb.append(classFile.getConstant(in.readUnsignedShort()));
+            break;
+        case '@':
+            appendAnnotation(classFile, in, sb);
+            break;
+        case '[':
+            int count = in.readUnsignedShort();
+            sb.append('{');
+            for (int i = 0; i < count; i++) {
+                appendValue(classFile, in, sb);
+                sb.append(',');
+            }
+            sb.append('}');
+            break;
+        default:
+            // A constant or a class, both of which are in the constant pool
+            sb.append(classFile.getConstant(in.readUnsignedShort()));
+            break;
+        }
+    }
+
+    /**
+     * Describes the components of a record, with their generic signatures and annotations.
+     */
+    private static List<String> getComponents(ClassFile classFile, ClassFile.Attribute record) throws Exception {
+        List<String> components = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getInfo()));
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(classFile.getConstant(in.readUnsignedShort())).append(' ');
+            sb.append(classFile.getConstant(in.readUnsignedShort()));
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String name = (String) classFile.getConstant(in.readUnsignedShort());
+                byte[] info = new byte[in.readInt()];
+                in.readFully(info);
+                if (name.equals("Signature")) {
+                    sb.append(' ').append(classFile.getConstant(((info[0] & 0xFF) << 8) | (info[1] & 0xFF)));
+                } else {
+                    appendAnnotations(classFile, name, info, sb);
+                }
+            }
+            // Components are in declaration order, which is part of the record's interface
+            components.add(sb.toString());
+        }
+        return components;
+    }
+
+    /**
+     * Gets the sorted names of the classes listed by an attribute such as Exceptions.
+     */
+    private static List<String> getClassNames(ClassFile classFile, ClassFile.Attribute classes) throws Exception {
+        List<String> names = new ArrayList<>();
+        if (classes != null) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classes.getInfo()));
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                names.add((String) classFile.getConstant(in.readUnsignedShort()));
+            }
+            Collections.sort(names);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The parts of a compiled Java class file needed to work out what a class depends on and what it
+ * exposes to other classes.
+ */
+public class ClassFile {
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final Object[] constants;
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<Member> fields = new ArrayList<>();
+    private final List<Member> methods = new ArrayList<>();
+    private final List<Attribute> attributes;
+
+    /**
+     * Parses the given class file.
+     */
+    public ClassFile(byte[] bytes) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("not a class file");
+        }
+        in.readUnsignedShort();// minor version
+        in.readUnsignedShort();// major version
+        int count = in.readUnsignedShort();
+        constants = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case CONSTANT_UTF8:
+                constants[i] = in.readUTF();
+                break;
+            case CONSTANT_INTEGER:
+                constants[i] = in.readInt();
+                break;
+            case CONSTANT_FLOAT:
+                constants[i] = in.readFloat();
+                break;
+            case CONSTANT_LONG:
+                constants[i++] = in.readLong();
+                break;
+            case CONSTANT_DOUBLE:
+                constants[i++] = in.readDouble();
+                break;
+            case CONSTANT_CLASS:
+                constants[i] = new Reference(tag, in.readUnsignedShort());
+                break;
+            case CONSTANT_STRING:
+                constants[i] = new Reference(tag, in.readUnsignedShort());
+                break;
+            case CONSTANT_METHOD_TYPE:
+            case CONSTANT_MODULE:
+            case CONSTANT_PACKAGE:
+                in.readUnsignedShort();
+                break;
+            case CONSTANT_FIELDREF:
+            case CONSTANT_METHODREF:
+            case CONSTANT_INTERFACE_METHODREF:
+            case CONSTANT_NAME_AND_TYPE:
+            case CONSTANT_DYNAMIC:
+            case CONSTANT_INVOKE_DYNAMIC:
+                in.readInt();
+                break;
+            case CONSTANT_METHOD_HANDLE:
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown constant pool tag " + tag);
+            }
+        }
+        access = in.readUnsignedShort();
+        name = getClassName(in.readUnsignedShort());
+        superName = getClassName(in.readUnsignedShort());
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(getClassName(in.readUnsignedShort()));
+        }
+        readMembers(in, fields);
+        readMembers(in, methods);
+        attributes = readAttributes(in);
+    }
+
+    /**
+     * Parses the given class file.
+     */
+    public static ClassFile read(File file) throws Exception {
+        return new ClassFile(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Gets the class's access flags.
+     */
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     * Gets the class's internal name, such as java/lang/Object.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the internal name of the class's superclass.
+     *
+     * @return the superclass, or null for java/lang/Object.
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * Gets the internal names of the interfaces the class implements.
+     */
+    public List<String> getInterfaces() {
+        return Collections.unmodifiableList(interfaces);
+    }
+
+    /**
+     * Gets the fields the class declares.
+     */
+    public List<Member> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Gets the methods the class declares.
+     */
+    public List<Member> getMethods() {
+        return Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * Gets the attributes of the class itself, such as its generic signature or inner classes.
+     */
+    public List<Attribute> getAttributes() {
+        return Collections.unmodifiableList(attributes);
+    }
+
+    /**
+     * Gets the class attribute with the given name.
+     *
+     * @return the attribute, or null if the class doesn't have one.
+     */
+    public Attribute getAttribute(String attributeName) {
+        for (Attribute attribute : attributes) {
+            if (attribute.getName().equals(attributeName)) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the internal names of every class this class refers to, whether directly or in the
+     * descriptors and signatures of the members it declares or uses.
+     *
+     * <p>
+     * Names are also picked out of string constants which look like descriptors, so the result may
+     * include classes which aren't really used, but never misses one which is. Constants inlined
+     * from other classes can't be seen at all.
+     * </p>
+     *
+     * @return the referenced class names, including this class.
+     */
+    public Set<String> getReferencedClasses() {
+        Set<String> classes = new TreeSet<>();
+        for (Object constant : constants) {
+            if (constant instanceof Reference && ((Reference) constant).tag == CONSTANT_CLASS) {
+                String className = (String) constants[((Reference) constant).index];
+                if (className.startsWith("[")) {
+                    addDescriptorClasses(className, classes);
+                } else {
+                    classes.add(className);
+                }
+            } else if (constant instanceof String) {
+                addDescriptorClasses((String) constant, classes);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Gets the value of the given entry in the constant pool.
+     *
+     * @return the value, either a String, Integer, Long, Float or Double.
+     */
+    public Object getConstant(int index) {
+        Object constant = constants[index];
+        if (constant instanceof Reference) {
+            return constants[((Reference) constant).index];
+        }
+        return constant;
+    }
+
+    private String getClassName(int index) {
+        return index == 0 ? null : (String) getConstant(index);
+    }
+
+    private void readMembers(DataInputStream in, List<Member> members) throws Exception {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int memberAccess = in.readUnsignedShort();
+            String memberName = (String) constants[in.readUnsignedShort()];
+            String descriptor = (String) constants[in.readUnsignedShort()];
+            members.add(new Member(memberAccess, memberName, descriptor, readAttributes(in)));
+        }
+    }
+
+    private List<Attribute> readAttributes(DataInputStream in) throws Exception {
+        int count = in.readUnsignedShort();
+        List<Attribute> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String attributeName = (String) constants[in.readUnsignedShort()];
+            byte[] info = new byte[in.readInt()];
+            in.readFully(info);
+            list.add(new Attribute(attributeName, info));
+        }
+        return list;
+    }
+
+    private static void addDescriptorClasses(String descriptor, Set<String> classes) {
+        int start = descriptor.indexOf('L');
+        while (start >= 0) {
+            int end = descriptor.indexOf(';', start);
+            if (end < 0) {
+                return;
+            }
+            String className = descriptor.substring(start + 1, end);
+            // Type arguments in signatures end the class name early
+            int generic = className.indexOf('<');
+            if (generic >= 0) {
+                className = className.substring(0, generic);
+                end = start + 1 + generic;
+            }
+            if (!className.isEmpty() && className.indexOf(' ') < 0) {
+                classes.add(className);
+            }
+            start = descriptor.indexOf('L', end);
+        }
+    }
+
+    private static final class Reference {
+
+        private final int tag;
+        private final int index;
+
+        private Reference(int tag, int index) {
+            this.tag = tag;
+            this.index = index;
+        }
+    }
+
+    /**
+     * An attribute of a class or member, holding its raw contents.
+     */
+    public static final class Attribute {
+
+        private final String name;
+        private final byte[] info;
+
+        private Attribute(String name, byte[] info) {
+            this.name = name;
+            this.info = info;
+        }
+
+        /**
+         * Gets the attribute's name, such as Code or Signature.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the attribute's contents.
+         */
+        public byte[] getInfo() {
+            return info.clone();
+        }
+
+        /**
+         * Gets the constant pool index the attribute's contents start with, as used by attributes
+         * such as Signature and ConstantValue.
+         */
+        public int getIndex() {
+            return ((info[0] & 0xFF) << 8) | (info[1] & 0xFF);
+        }
+    }
+
+    /**
+     * A field or method declared by a class.
+     */
+    public static final class Member {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final List<Attribute> attributes;
+
+        private Member(int access, String name, String descriptor, List<Attribute> attributes) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Gets the member's access flags.
+         */
+        public int getAccess() {
+            return access;
+        }
+
+        /**
+         * Gets the member's name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the member's type descriptor.
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * Gets the member's attributes.
+         */
+        public List<Attribute> getAttributes() {
+            return Collections.unmodifiableList(attributes);
+        }
+
+        /**
+         * Gets the attribute with the given name.
+         *
+         * @return the attribute, or null if the member doesn't have one.
+         */
+        public Attribute getAttribute(String attributeName) {
+            for (Attribute attribute : attributes) {
+                if (attribute.getName().equals(attributeName)) {
+                    return attribute;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes header jars, holding the classes of a jar with their method bodies and private members
+ * stripped out.
+ *
+ * <p>
+ * A header jar is all that is needed to compile against a jar. It is written from the compiled
+ * class files, so it can't be written before the jar has finished compiling, but jars depending on
+ * it can start compiling while the jar is still being packaged. Everything else in the class
+ * files, including the constant pool, is copied as is.
+ * </p>
+ */
+public final class HeaderJar {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int PRIVATE = 0x0002;
+
+    private HeaderJar() {}
+
+    /**
+     * Writes a header jar holding the classes under the given directory.
+     */
+    public static void write(File classes, File jar) throws Exception {
+        Map<String, File> files = new TreeMap<>();
+        list(classes, "", files);
+        jar.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                byte[] bytes = strip(Files.readAllBytes(entry.getValue().toPath()));
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                // Fixed times and no compression make writing fast and the output reproducible
+                zipEntry.setTime(0);
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(bytes.length);
+                zipEntry.setCrc(crc.getValue());
+                out.putNextEntry(zipEntry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Strips the method bodies and private fields and methods out of the given class file.
+     *
+     * @return the stripped class file.
+     */
+    public static byte[] strip(byte[] bytes) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
+        DataOutputStream out = new DataOutputStream(buffer);
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("not a class file");
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(in.readInt());// minor and major versions
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        String[] strings = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            out.writeByte(tag);
+            switch (tag) {
+            case 1:// Utf8
+                strings[i] = in.readUTF();
+                out.writeUTF(strings[i]);
+                break;
+            case 5:// Long
+            case 6:// Double
+                copy(in, out, 8);
+                i++;
+                break;
+            case 7:// Class
+            case 8:// String
+            case 16:// MethodType
+            case 19:// Module
+            case 20:// Package
+                copy(in, out, 2);
+                break;
+            case 15:// MethodHandle
+                copy(in, out, 3);
+                break;
+            case 3:// Integer
+            case 4:// Float
+            case 9:// Fieldref
+            case 10:// Methodref
+            case 11:// InterfaceMethodref
+            case 12:// NameAndType
+            case 17:// Dynamic
+            case 18:// InvokeDynamic
+                copy(in, out, 4);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown constant pool tag " + tag);
+            }
+        }
+        copy(in, out, 6);// access flags, this class and super class
+        int interfaces = in.readUnsignedShort();
+        out.writeShort(interfaces);
+        copy(in, out, interfaces * 2);
+        for (int members = 0; members < 2; members++) {
+            ByteArrayOutputStream kept = new ByteArrayOutputStream();
+            DataOutputStream keptOut = new DataOutputStream(kept);
+            int memberCount = in.readUnsignedShort();
+            int keptCount = 0;
+            for (int i = 0; i < memberCount; i++) {
+                int access = in.readUnsignedShort();
+                int name = in.readUnsignedShort();
+                int descriptor = in.readUnsignedShort();
+                ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+                int attributeCount = copyAttributes(in, new DataOutputStream(attributes), strings);
+                if ((access & PRIVATE) == 0) {
+                    keptOut.writeShort(access);
+                    keptOut.writeShort(name);
+                    keptOut.writeShort(descriptor);
+                    keptOut.writeShort(attributeCount);
+                    attributes.writeTo(keptOut);
+                    keptCount++;
+                }
+            }
+            out.writeShort(keptCount);
+            kept.writeTo(out);
+        }
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        out.writeShort(copyAttributes(in, new DataOutputStream(attributes), strings));
+        attributes.writeTo(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Copies the attributes other than method bodies.
+     *
+     * @return the number of attributes copied.
+     */
+    private static int copyAttributes(DataInputStream in, DataOutputStream out, String[] strings) throws Exception {
+        int count = in.readUnsignedShort();
+        int copied = 0;
+        for (int i = 0; i < count; i++) {
+            int name = in.readUnsignedShort();
+            int length = in.readInt();
+            if ("Code".equals(strings[name])) {
+                in.skipBytes(length);
+            } else {
+                out.writeShort(name);
+                out.writeInt(length);
+                copy(in, out, length);
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    private static void copy(DataInputStream in, DataOutputStream out, int length) throws Exception {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        out.write(bytes);
+    }
+
+    private static void list(File file, String path, Map<String, File> files) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                list(child, path + child.getName() + (child.isDirectory() ? "/" : ""), files);
+            }
+        } else if (path.endsWith(".class")) {
+            files.put(path, file);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import match.Hasher;
+import match.Utilities;
+
+/**
+ * Compiles Java source code into a directory of classes, only recompiling the sources which
+ * changed since the last compile and the sources which depend on them.
+ *
+ * <p>
+ * The state of the last compile is kept in a properties file, recording the digest of each source
+ * file, the classes generated from it, including inner and anonymous classes, and the other
+ * sources its classes refer to. Classes generated from changed or deleted sources are deleted
+ * before recompiling, so no stale classes are left behind.
+ * </p>
+ *
+ * <p>
+ * Everything is recompiled if the classpath changes, if the state is missing or doesn't match
+ * the classes on disk, or if a recompiled source changes the value of a constant, since constants
+ * are inlined into the classes using them without leaving a reference behind.
+ * </p>
+ */
+public class IncrementalCompiler {
+
+    public static final String CLASSES = "classes.";
+    public static final String CLASSPATH = "classpath";
+    public static final String CONSTANTS = "constants.";
+    public static final String SOURCE = "source.";
+    public static final String USES = "uses.";
+
+    private static final String SEPARATOR = "\n";
+    private static final String NO_CONSTANTS = Hasher.hash("");
+
+    private final Javac javac;
+    private final Hasher hasher;
+
+    /**
+     * Creates an incremental compiler using the given compiler.
+     */
+    public IncrementalCompiler(Javac javac, Hasher hasher) {
+        this.javac = javac;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Compiles the given source files into the given output directory, using the state of the last
+     * compile in the given state file to avoid recompiling unchanged sources.
+     *
+     * @param classpath the jars and directories to compile against.
+     * @param interfaces the ABI digests of any jars on the classpath which have them, so the
+     *     classes aren't all recompiled when only the implementation of a jar changes.
+     * @param sources the source files to compile.
+     * @param directory the directory relative paths are resolved against.
+     * @param output the directory to write class files to.
+     * @param stateFile the file holding the state of the last compile.
+     * @param errors where to write any compiler diagnostics.
+     * @return true iff the sources compiled successfully.
+     */
+    public boolean compile(List<String> classpath, Map<String, String> interfaces, List<String> sources, File directory, File output, File stateFile, Writer errors) throws Exception {
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (String source : sources) {
+            File file = new File(source);
+            if (!file.isAbsolute()) {
+                file = new File(directory, source);
+            }
+            String path = file.toPath().normalize().toAbsolutePath().toString();
+            digests.put(path, hasher.hash(new File(path)));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String path : classpath) {
+            String digest = interfaces.get(path);
+            if (digest == null) {
+                File file = new File(path);
+                digest = hasher.hash(file.isAbsolute() ? file : new File(directory, path));
+            }
+            sb.append(path).append('=').append(digest).append('\n');
+        }
+        String classpathDigest = Hasher.hash(sb.toString());
+        Properties state = Utilities.readProperties(stateFile);
+        // Until this compile succeeds the classes on disk don't match any state
+        stateFile.delete();
+        boolean incremental = isValid(state, classpathDigest, output);
+        Set<String> changed = new TreeSet<>();
+        if (incremental) {
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                if (!entry.getValue().equals(state.getProperty(SOURCE + entry.getKey()))) {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (String path : getSources(state)) {
+                if (!digests.containsKey(path)) {
+                    changed.add(path);
+                    // Anything which inlined the deleted source's constants can't be found
+                    String constants = state.getProperty(CONSTANTS + path);
+                    if (constants != null && !constants.equals(NO_CONSTANTS)) {
+                        incremental = false;
+                    }
+                    state.remove(CONSTANTS + path);
+                }
+            }
+        }
+        if (!incremental) {
+            state = new Properties();
+            delete(output);
+        }
+        Set<String> recompile = new TreeSet<>();
+        if (incremental) {
+            for (String path : getDependents(state, changed)) {
+                for (String className : getList(state, CLASSES + path)) {
+                    getClassFile(output, className).delete();
+                }
+                state.remove(SOURCE + path);
+                state.remove(CLASSES + path);
+                state.remove(USES + path);
+                if (digests.containsKey(path)) {
+                    recompile.add(path);
+                }
+            }
+        } else {
+            recompile.addAll(digests.keySet());
+        }
+        if (!recompile.isEmpty()) {
+            List<String> path = new ArrayList<>(classpath);
+            if (incremental) {
+                // The classes of unchanged sources are compiled against rather than recompiled
+                path.add(output.getAbsolutePath());
+            }
+            Map<File, Set<String>> classes = new HashMap<>();
+            if (!javac.compile(path, new ArrayList<>(recompile), directory, output, errors, classes)) {
+                return false;
+            }
+            if (!record(state, recompile, classes, output) && incremental) {
+                return compile(classpath, interfaces, sources, directory, output, stateFile, errors);
+            }
+        }
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            state.setProperty(SOURCE + entry.getKey(), entry.getValue());
+        }
+        state.setProperty(CLASSPATH, classpathDigest);
+        Utilities.writeProperties(state, stateFile);
+        return true;
+    }
+
+    private boolean isValid(Properties state, String classpathDigest, File output) {
+        if (!classpathDigest.equals(state.getProperty(CLASSPATH))) {
+            return false;
+        }
+        for (String path : getSources(state)) {
+            for (String className : getList(state, CLASSES + path)) {
+                if (!getClassFile(output, className).isFile()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the classes generated from each of the given sources, the sources they use, and the
+     * values of their constants.
+     *
+     * @return false iff the value of a constant changed.
+     */
+    private boolean record(Properties state, Set<String> recompiled, Map<File, Set<String>> classes, File output) throws Exception {
+        for (String path : recompiled) {
+            Set<String> set = classes.get(new File(path));
+            state.setProperty(CLASSES + path, set == null ? "" : Utilities.join(SEPARATOR, set));
+        }
+        Map<String, String> owners = new HashMap<>();
+        for (String path : getSources(state)) {
+            for (String className : getList(state, CLASSES + path)) {
+                owners.put(className.replace('.', '/'), path);
+            }
+        }
+        boolean unchanged = true;
+        for (String path : recompiled) {
+            Set<String> uses = new TreeSet<>();
+            List<String> constants = new ArrayList<>();
+            for (String className : getList(state, CLASSES + path)) {
+                ClassFile classFile = ClassFile.read(getClassFile(output, className));
+                for (String reference : classFile.getReferencedClasses()) {
+                    String owner = owners.get(reference);
+                    if (owner != null && !owner.equals(path)) {
+                        uses.add(owner);
+                    }
+                }
+                for (ClassFile.Member field : classFile.getFields()) {
+                    ClassFile.Attribute value = field.getAttribute("ConstantValue");
+                    if (value != null) {
+                        constants.add(className + "." + field.getName() + ":" + field.getDescriptor() + "=" + classFile.getConstant(value.getIndex()));
+                    }
+                }
+            }
+            state.setProperty(USES + path, Utilities.join(SEPARATOR, uses));
+            String digest = Hasher.hash(Utilities.join(SEPARATOR, constants));
+            String previous = (String) state.setProperty(CONSTANTS + path, digest);
+            if (previous != null && !previous.equals(digest)) {
+                unchanged = false;
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Gets the given sources along with every source which depends on them, directly or indirectly.
+     */
+    private static Set<String> getDependents(Properties state, Set<String> changed) {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (String path : getSources(state)) {
+            for (String use : getList(state, USES + path)) {
+                List<String> list = dependents.get(use);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependents.put(use, list);
+                }
+                list.add(path);
+            }
+        }
+        Set<String> result = new TreeSet<>(changed);
+        Queue<String> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            List<String> list = dependents.get(queue.remove());
+            if (list != null) {
+                for (String dependent : list) {
+                    if (result.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> getSources(Properties state) {
+        Set<String> sources = new TreeSet<>();
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(CLASSES)) {
+                sources.add(key.substring(CLASSES.length()));
+            }
+        }
+        return sources;
+    }
+
+    private static List<String> getList(Properties state, String key) {
+        String value = state.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(value.split(SEPARATOR));
+    }
+
+    private static File getClassFile(File output, String className) {
+        return new File(output, className.replace('.', File.separatorChar) + ".class");
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+                child.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java source code inside the running JVM, avoiding the cost of starting a new JVM and
+ * warming up the compiler for every target.
+ *
+ * <p>
+ * File managers are reused from one compile to the next. Each keeps the jars on its classpath open
+ * and indexed, so libraries shared by many targets are only read once per file manager. A file
+ * manager isn't thread safe, so each compile borrows one from a pool and returns it afterwards.
+ * </p>
+ */
+public class Javac {
+
+    private final JavaCompiler compiler;
+    private final Queue<StandardJavaFileManager> managers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a compiler using the given Java compiler.
+     */
+    public Javac(JavaCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Creates a compiler using the JVM's own Java compiler.
+     *
+     * @return the compiler, or null if the JVM doesn't include one.
+     */
+    public static Javac create() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        return compiler == null ? null : new Javac(compiler);
+    }
+
+    /**
+     * Compiles the given source files into the given output directory, resolving relative paths
+     * against the given directory.
+     *
+     * @param classpath the jars and directories to compile against.
+     * @param sources the source files to compile.
+     * @param directory the directory relative paths are resolved against.
+     * @param output the directory to write class files to.
+     * @param errors where to write any compiler diagnostics.
+     * @return true iff the sources compiled successfully.
+     */
+    public boolean compile(List<String> classpath, List<String> sources, File directory, File output, Writer errors) throws Exception {
+        return compile(classpath, sources, directory, output, errors, null);
+    }
+
+    /**
+     * Compiles the given source files into the given output directory, recording the binary names
+     * of the classes generated from each source file, including any inner and anonymous classes.
+     *
+     * @param classes the map to add the classes generated from each source file to, or null.
+     * @return true iff the sources compiled successfully.
+     */
+    public boolean compile(List<String> classpath, List<String> sources, File directory, File output, Writer errors, final Map<File, Set<String>> classes) throws Exception {
+        output.mkdirs();
+        StandardJavaFileManager manager = managers.poll();
+        if (manager == null) {
+            manager = compiler.getStandardFileManager(null, null, null);
+        }
+        try {
+            List<File> files = new ArrayList<>();
+            for (String path : classpath) {
+                files.add(resolve(directory, path));
+            }
+            if (files.isEmpty()) {
+                // Like the command line compiler, default to the current directory
+                files.add(directory);
+            }
+            manager.setLocation(StandardLocation.CLASS_PATH, files);
+            manager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(output));
+            files = new ArrayList<>();
+            for (String path : sources) {
+                files.add(resolve(directory, path));
+            }
+            Iterable<? extends JavaFileObject> units = manager.getJavaFileObjectsFromFiles(files);
+            JavaFileManager fileManager = manager;
+            if (classes != null) {
+                fileManager = new ForwardingJavaFileManager<JavaFileManager>(manager) {
+                    @Override
+                    public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling) throws IOException {
+                        if (kind == Kind.CLASS && sibling != null) {
+                            File source = new File(sibling.toUri()).getAbsoluteFile();
+                            synchronized (classes) {
+                                Set<String> set = classes.get(source);
+                                if (set == null) {
+                                    set = new TreeSet<>();
+                                    classes.put(source, set);
+                                }
+                                set.add(className);
+                            }
+                        }
+                        return super.getJavaFileForOutput(location, className, kind, sibling);
+                    }
+                };
+            }
+            return compiler.getTask(errors, fileManager, null, null, null, units).call();
+        } finally {
+            managers.add(manager);
+        }
+    }
+
+    private static File resolve(File directory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+    }
+}
@@ -21,6 +21,11 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        match.archive.ArchiveReaderTest.class,
+        match.archive.ArchiveWriterTest.class,
+        match.archive.JarMergerTest.class,
+        match.cache.ActionCacheTest.class,
+        match.cache.RemoteCacheTest.class,
         match.expression.function.FindTest.class,
         match.expression.function.FunctionTest.class,
         match.expression.function.GetFileTest.class,
@@ -34,9 +39,25 @@ import org.junit.runners.Suite;
         match.expression.LiteralTest.class,
         match.frontend.LexerTest.class,
         match.frontend.ParserTest.class,
+        match.java.AbiTest.class,
+        match.java.HeaderJarTest.class,
+        match.java.IncrementalCompilerTest.class,
+        match.java.JavacTest.class,
+        match.DatabaseTest.class,
+        match.FileIndexTest.class,
+        match.FileTreeTest.class,
+        match.GitIndexTest.class,
+        match.GlobTest.class,
+        match.GraphTest.class,
+        match.IgnoreTest.class,
         match.MatchTest.class,
+        match.PathTableTest.class,
+        match.SchedulerTest.class,
+        match.SnapshotTest.class,
+        match.StatCacheTest.class,
         match.TargetTest.class,
-        match.UtilitiesTest.class
+        match.UtilitiesTest.class,
+        match.WalkerTest.class
 })
 public class AllTests {
     //nothing
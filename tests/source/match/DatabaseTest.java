@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import match.expression.IExpression;
+import match.expression.Literal;
+import match.expression.function.IFunction;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+/**
+ * Tests for Database.
+ */
+public class DatabaseTest {
+
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IMatch match;
+    private ITarget target;
+    private IFunction function;
+    private Map<String, IExpression> parameters;
+    private Graph graph;
+    private Database database;
+    private File input;
+    private File output;
+
+    /**
+     * Sets up a target with a single input and output file.
+     */
+    @Before
+    public void setUp() throws Exception {
+        match = Mockito.mock(IMatch.class);
+        target = Mockito.mock(ITarget.class);
+        function = Mockito.mock(IFunction.class);
+        input = folder.newFile(FOO);
+        Utilities.writeStringToFile(FOO, input);
+        output = folder.newFile(BAR);
+        Utilities.writeStringToFile(BAR, output);
+        parameters = new HashMap<>();
+        parameters.put(FOO, new Literal(match, target, FOO));
+        Mockito.when(function.getParameters()).thenReturn(parameters);
+        Mockito.when(target.getName()).thenReturn(FOO);
+        Mockito.when(target.getFunction()).thenReturn(function);
+        Mockito.when(target.getDirectory()).thenReturn(folder.getRoot());
+        Mockito.when(target.getCommands()).thenReturn(Collections.singletonList(BAR));
+        graph = new Graph();
+        database = new Database(match, graph, new Hasher(), folder.newFolder());
+    }
+
+    @Test
+    public void isUpToDate() throws Exception {
+        Assert.assertFalse("Target shouldn't be up to date before it is built", database.isUpToDate(target, database.fingerprint(target)));
+        build();
+        Assert.assertTrue("Target should be up to date", database.isUpToDate(target, database.fingerprint(target)));
+        Mockito.verify(match, Mockito.times(1)).provideFile(output);
+    }
+
+    @Test
+    public void isUpToDate_inputChanged() throws Exception {
+        build();
+        Utilities.writeStringToFile(BAR, input);
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+    }
+
+    @Test
+    public void isUpToDate_parameterChanged() throws Exception {
+        build();
+        parameters.put(BAR, new Literal(match, target, BAR));
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+    }
+
+    @Test
+    public void isUpToDate_outputChanged() throws Exception {
+        build();
+        Utilities.writeStringToFile(FOO, output);
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+        Mockito.verify(match, Mockito.never()).provideFile(output);
+    }
+
+    @Test
+    public void isUpToDate_environment() throws Exception {
+        String path = Paths.get(System.getenv("HOME")).toAbsolutePath().relativize(input.toPath().toAbsolutePath()).toString();
+        parameters.put(FOO, new Literal(match, target, "$HOME/" + path));
+        build();
+        Assert.assertTrue("Target should be up to date", database.isUpToDate(target, database.fingerprint(target)));
+        Utilities.writeStringToFile(BAR, input);
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+    }
+
+    @Test
+    public void fingerprint_property() throws Exception {
+        Mockito.when(match.hasProperty(FOO)).thenReturn(true);
+        Mockito.when(match.getProperty(FOO)).thenReturn("1.2.3");
+        graph.addProperty(target, FOO);
+        graph.build(match, Collections.singletonList(target));
+        for (String key : database.fingerprint(target).stringPropertyNames()) {
+            Assert.assertFalse("Property value shouldn't be an input file", key.equals(Database.INPUT + "1.2.3"));
+        }
+    }
+
+    @Test
+    public void isUpToDate_declaredMissing() throws Exception {
+        File declared = new File(folder.getRoot(), "declared");
+        graph.addProducer(target, declared.getAbsolutePath());
+        Utilities.writeStringToFile(FOO, declared);
+        build();
+        Assert.assertTrue("Target should be up to date", database.isUpToDate(target, database.fingerprint(target)));
+        Assert.assertTrue("Couldn't delete file", declared.delete());
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+    }
+
+    @Test
+    public void isUpToDate_directory() throws Exception {
+        File directory = folder.newFolder("classes");
+        Utilities.writeStringToFile(FOO, new File(directory, FOO));
+        Properties record = database.fingerprint(target);
+        database.addDirectory(target, directory.getAbsolutePath());
+        database.store(target, record);
+        Assert.assertTrue("Target should be up to date", database.isUpToDate(target, database.fingerprint(target)));
+        Mockito.verify(match, Mockito.times(1)).addDirectory(directory.getAbsoluteFile());
+        Utilities.writeStringToFile(BAR, new File(directory, FOO));
+        Assert.assertFalse("Target shouldn't be up to date", database.isUpToDate(target, database.fingerprint(target)));
+    }
+
+    private void build() throws Exception {
+        Properties record = database.fingerprint(target);
+        database.addOutput(target, output.toPath().toString());
+        database.store(target, record);
+    }
+}
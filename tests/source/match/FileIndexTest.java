@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for FileIndex.
+ */
+public class FileIndexTest {
+
+    private static final String FOO = "/foo";
+    private static final String BAR = "/bar";
+
+    /**
+     * Tests that a future is only created for a file awaited before it is provided.
+     */
+    @Test
+    public void await() throws Exception {
+        PathTable paths = new PathTable('/');
+        FileIndex index = new FileIndex(paths);
+        index.addProvided(paths.add(FOO));
+        index.add(BAR);
+        Assert.assertTrue("Provided file should be done", index.await(FOO).isDone());
+        Assert.assertEquals("Nothing should be waiting", 0, index.getWaiting());
+        Future<Void> future = index.await(BAR);
+        Assert.assertFalse("Pending file should not be done", future.isDone());
+        Assert.assertSame("Waits should share a future", future, index.await(BAR));
+        Assert.assertEquals("Wrong number waiting", 1, index.getWaiting());
+        Assert.assertTrue("Added file should be provided", index.provide(BAR));
+        Assert.assertTrue("Future should be done", future.isDone());
+        Assert.assertEquals("Nothing should be waiting", 0, index.getWaiting());
+        Assert.assertEquals("Wrong number of files", 2, index.size());
+    }
+
+    /**
+     * Tests that files which were never added can't be provided or awaited.
+     */
+    @Test
+    public void await_missing() throws Exception {
+        FileIndex index = new FileIndex(new PathTable('/'));
+        Assert.assertNull("Missing file should not be awaitable", index.await(FOO));
+        Assert.assertFalse("Missing file should not be provided", index.provide(FOO));
+    }
+
+    /**
+     * Tests that adding a file again resets it, so it has to be provided again.
+     */
+    @Test
+    public void add_reset() throws Exception {
+        PathTable paths = new PathTable('/');
+        FileIndex index = new FileIndex(paths);
+        index.addProvided(paths.add(FOO));
+        index.add(FOO);
+        Assert.assertFalse("Re-added file should be pending", index.await(FOO).isDone());
+    }
+}
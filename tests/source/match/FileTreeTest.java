@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for FileTree.
+ */
+public class FileTreeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that the files under a directory are listed from the tree, without the disk.
+     */
+    @Test
+    public void list() throws Exception {
+        File root = folder.getRoot();
+        MatchTest.createFileStructure(root);
+        PathTable paths = new PathTable();
+        final FileTree tree = new FileTree(paths);
+        String path = root.toPath().toAbsolutePath().toString();
+        Assert.assertTrue("Root should be added", tree.add(paths.add(path), true));
+        new Walker(paths).walk(root.toPath(), new Walker.IVisitor() {
+            @Override
+            public boolean visit(Path path, int id, BasicFileAttributes attributes) {
+                tree.add(id, attributes.isDirectory());
+                return true;
+            }
+        });
+        Assert.assertEquals("Wrong size", 8, tree.size());
+        Assert.assertFalse("Root shouldn't be added twice", tree.add(paths.getId(path), true));
+        // Deleting files shouldn't change what is listed
+        Assert.assertTrue(new File(root, "c/d/e").delete());
+        Assert.assertEquals("Wrong files", Arrays.asList("a/b", "bar", "c/d/e", "c/d/f"), sort(tree.list(path)));
+        Assert.assertEquals("Wrong files", Arrays.asList("d/e", "d/f"), sort(tree.list(new File(root, "c").getPath())));
+        Assert.assertTrue("Should be a file", tree.isFile(paths.getId(new File(root, "bar").getPath())));
+        Assert.assertTrue("Should be a directory", tree.isDirectory(paths.getId(new File(root, "a").getPath())));
+        Assert.assertNull("File shouldn't be listed", tree.list(new File(root, "bar").getPath()));
+        Assert.assertNull("Missing directory shouldn't be listed", tree.list(new File(root, "g").getPath()));
+    }
+
+    private static List<String> sort(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for GitIndex.
+ */
+public class GitIndexTest {
+
+    private static final String BLOB = "0123456789abcdef0123456789abcdef01234567";
+    private static final long SECONDS = 1500000000L;
+    private static final int MODE = 0100644;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File root;
+    private File foo;
+    private File bar;
+
+    /**
+     * Creates a work tree with two files, modified well before the index.
+     */
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot();
+        new File(root, ".git").mkdirs();
+        foo = new File(root, "a/foo");
+        bar = new File(root, "a/bar");
+        foo.getParentFile().mkdirs();
+        Files.write(foo.toPath(), "foo".getBytes(StandardCharsets.UTF_8));
+        Files.write(bar.toPath(), "bar".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(foo.toPath(), FileTime.from(SECONDS, TimeUnit.SECONDS));
+        Files.setLastModifiedTime(bar.toPath(), FileTime.from(SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that unchanged files are hashed from the index, and changed files are read.
+     */
+    @Test
+    public void getDigest() throws Exception {
+        for (int version = 2; version <= 4; version++) {
+            writeIndex(version, SECONDS + 10, entry(version, "a/bar", SECONDS, 3, 0), entry(version, "a/foo", SECONDS, 3, 0));
+            GitIndex index = GitIndex.load(root);
+            Assert.assertNotNull("Index should load", index);
+            Assert.assertEquals("Wrong number of entries", 2, index.size());
+            Assert.assertEquals("Wrong digest", BLOB, index.getDigest(foo));
+            Assert.assertEquals("Wrong digest", BLOB, new Hasher(index, null).hash(bar));
+            Assert.assertNull("Untracked file shouldn't have a digest", index.getDigest(new File(root, "a/baz")));
+        }
+        Files.write(foo.toPath(), "fooo".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(foo.toPath(), FileTime.from(SECONDS, TimeUnit.SECONDS));
+        GitIndex index = GitIndex.load(root);
+        Assert.assertNull("Resized file shouldn't have a digest", index.getDigest(foo));
+        Hasher hasher = new Hasher(index, null);
+        hasher.hash(bar);
+        Assert.assertEquals("Unchanged file shouldn't be read", 0, hasher.getReadCount());
+        Assert.assertEquals("Resized file should be read", new Hasher().hash(foo), hasher.hash(foo));
+        Assert.assertEquals("Wrong number of reads", 1, hasher.getReadCount());
+        Files.setLastModifiedTime(bar.toPath(), FileTime.from(SECONDS + 1, TimeUnit.SECONDS));
+        Assert.assertNull("Touched file shouldn't have a digest", index.getDigest(bar));
+    }
+
+    /**
+     * Tests that a file replaced by another with the same size and modification time isn't hashed
+     * from the index, as with `cp -p`.
+     */
+    @Test
+    public void getDigest_replaced() throws Exception {
+        writeIndex(2, SECONDS + 10, entry(2, "a/foo", SECONDS, 3, 0));
+        GitIndex index = GitIndex.load(root);
+        Assert.assertEquals("Wrong digest", BLOB, index.getDigest(foo));
+        File copy = new File(root, "copy");
+        Files.write(copy.toPath(), "baz".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(copy.toPath(), FileTime.from(SECONDS, TimeUnit.SECONDS));
+        Files.move(copy.toPath(), foo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertNull("Replaced file shouldn't have a digest", index.getDigest(foo));
+        Assert.assertEquals("Replaced file should be read", new Hasher().hash(foo), new Hasher(index, null).hash(foo));
+    }
+
+    /**
+     * Tests that entries which can't be trusted are left out.
+     */
+    @Test
+    public void load_untrusted() throws Exception {
+        writeIndex(2, SECONDS,
+                entry(2, "a/bar", SECONDS, 3, 0),
+                entry(2, "a/foo", SECONDS - 10, 3, 0x3000),
+                entry(2, "a/qux", SECONDS - 10, 3, 0x8000));
+        GitIndex index = GitIndex.load(root);
+        Assert.assertNotNull("Index should load", index);
+        Assert.assertEquals("Racy and flagged entries shouldn't be trusted", 0, index.size());
+        Assert.assertNull("Missing index shouldn't load", GitIndex.load(folder.newFolder()));
+    }
+
+    /**
+     * Tests that the index isn't used when git converts files as it stages them.
+     */
+    @Test
+    public void load_converted() throws Exception {
+        File attributes = new File(root, "a/.gitattributes");
+        Files.write(attributes.toPath(), "*.bin -text\n".getBytes(StandardCharsets.UTF_8));
+        writeIndex(2, SECONDS + 10, entry(2, "a/.gitattributes", SECONDS, 12, 0), entry(2, "a/bar", SECONDS, 3, 0));
+        Assert.assertNotNull("Unset attributes shouldn't convert", GitIndex.load(root));
+        Files.write(attributes.toPath(), "# eol=crlf\n*.txt eol=crlf\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull("Index shouldn't load with line ending conversion", GitIndex.load(root));
+        Assert.assertTrue("Attributes should be deleted", attributes.delete());
+        Assert.assertNotNull("Index should load without attributes", GitIndex.load(root));
+        File config = new File(root, ".git/config");
+        Files.write(config.toPath(), "[core]\n\tautocrlf = input\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull("Index shouldn't load with autocrlf", GitIndex.load(root));
+        Files.write(config.toPath(), "[core]\n\tautocrlf = false\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNotNull("Index should load without autocrlf", GitIndex.load(root));
+    }
+
+    private byte[] entry(int version, String name, long seconds, int size, int flags) throws IOException {
+        // The change time and inode are the file's own, as they can't be set
+        long changed = 0;
+        long inode = 0;
+        File file = new File(root, name);
+        if (file.exists()) {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+                Map<String, Object> attributes = Files.readAttributes(file.toPath(), "unix:ino,ctime");
+                changed = ((FileTime) attributes.get("ctime")).to(TimeUnit.NANOSECONDS);
+                inode = (Long) attributes.get("ino");
+            } else {
+                changed = Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().to(TimeUnit.NANOSECONDS);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt((int) TimeUnit.NANOSECONDS.toSeconds(changed));
+        out.writeInt((int) (changed % TimeUnit.SECONDS.toNanos(1)));
+        out.writeInt((int) seconds);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt((int) inode);
+        out.writeInt(MODE);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(size);
+        for (int i = 0; i < BLOB.length(); i += 2) {
+            out.writeByte(Integer.parseInt(BLOB.substring(i, i + 2), 16));
+        }
+        byte[] path = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(flags | path.length);
+        if (version == 4) {
+            // Entries are written in full, dropping all of the previous path
+            out.writeByte(0);
+            out.write(path);
+            out.writeByte(0);
+        } else {
+            out.write(path);
+            int length = 62 + path.length;
+            for (int i = length; i < ((length + 8) & ~7); i++) {
+                out.writeByte(0);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeIndex(int version, long modified, byte[]... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("DIRC");
+        out.writeInt(version);
+        out.writeInt(entries.length);
+        for (byte[] entry : entries) {
+            if (version == 4 && entry != entries[0]) {
+                // Drop the whole of the previous path, which is always 5 bytes here
+                entry = Arrays.copyOf(entry, entry.length);
+                entry[62] = 5;
+            }
+            out.write(entry);
+        }
+        out.write(new byte[20]);
+        out.flush();
+        File index = new File(root, ".git/index");
+        Files.write(index.toPath(), bytes.toByteArray());
+        Files.setLastModifiedTime(index.toPath(), FileTime.from(modified, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for Glob.
+ */
+public class GlobTest {
+
+    /**
+     * Tests matching paths against the glob syntax.
+     */
+    @Test
+    public void matches() {
+        Glob glob = Glob.of("**/*.java", "res/*.{png,xml}", "file?.[a-c]", "lib/**");
+        Assert.assertTrue(glob.matches("Foo.java"));
+        Assert.assertTrue(glob.matches("a/b/Foo.java"));
+        Assert.assertFalse(glob.matches("a/b/Foo.javax"));
+        Assert.assertTrue(glob.matches("res/icon.png"));
+        Assert.assertTrue(glob.matches("res/layout.xml"));
+        Assert.assertFalse(glob.matches("res/a/layout.xml"));
+        Assert.assertFalse(glob.matches("res/notes.txt"));
+        Assert.assertTrue(glob.matches("file1.b"));
+        Assert.assertFalse(glob.matches("file1.d"));
+        Assert.assertFalse(glob.matches("file12.b"));
+        Assert.assertTrue(glob.matches("lib/a/b"));
+        Assert.assertFalse("Trailing ** should only match inside", glob.matches("lib"));
+        Assert.assertTrue(Glob.ALL.matches("a/b/c"));
+    }
+
+    /**
+     * Tests that excludes take precedence over includes.
+     */
+    @Test
+    public void matches_excludes() {
+        Glob glob = new Glob(Arrays.asList("src/**"), Arrays.asList("**/*Test.java", "src/gen/**"));
+        Assert.assertTrue(glob.matches("src/a/Foo.java"));
+        Assert.assertFalse(glob.matches("src/a/FooTest.java"));
+        Assert.assertFalse(glob.matches("src/gen/Foo.java"));
+        Assert.assertTrue(glob.matches("src/a/gen/Foo.java"));
+    }
+
+    /**
+     * Tests that directories which can't contain a match are pruned.
+     */
+    @Test
+    public void enter() {
+        Glob glob = new Glob(Arrays.asList("src/**/*.proto", "res/*"), Collections.singletonList("**/build/**"));
+        Glob.State start = glob.getStart();
+        Assert.assertNull("Unrelated directory should be pruned", start.enter("node_modules"));
+        Glob.State src = start.enter("src");
+        Assert.assertNotNull(src);
+        Assert.assertNotNull(src.enter("a").enter("b"));
+        Assert.assertNull("Excluded directory should be pruned", src.enter("build"));
+        Assert.assertNull("Directory below a single segment should be pruned", start.enter("res").enter("a"));
+        Assert.assertTrue(start.enter("res").matches("a"));
+        Assert.assertTrue(src.enter("a").matches("a.proto"));
+        Assert.assertFalse(src.matches("a.java"));
+    }
+}
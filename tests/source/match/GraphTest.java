@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests for Graph.
+ */
+public class GraphTest {
+
+    private static final String FOO = "/foo";
+    private static final String BAR = "/bar";
+    private static final String BAR_KEY = "bar";
+
+    private IMatch match;
+    private ITarget library;
+    private ITarget jar;
+    private ITarget test;
+
+    /**
+     * Sets up a chain of targets; a library, a jar using the library, and a test using the jar.
+     */
+    @Before
+    public void setUp() {
+        match = Mockito.mock(IMatch.class);
+        Mockito.when(match.hasProperty(BAR_KEY)).thenReturn(true);
+        Mockito.when(match.getProperty(BAR_KEY)).thenReturn(BAR);
+        library = Mockito.mock(ITarget.class);
+        jar = Mockito.mock(ITarget.class);
+        test = Mockito.mock(ITarget.class);
+    }
+
+    @Test
+    public void build() {
+        Graph graph = new Graph();
+        graph.addProducer(library, FOO);
+        graph.addProducer(jar, BAR);
+        graph.addFile(jar, FOO);
+        graph.addProperty(test, BAR_KEY);
+        List<ITarget> order = graph.build(match, Arrays.asList(test, jar, library));
+        Assert.assertEquals("Wrong order", Arrays.asList(library, jar, test), order);
+        Assert.assertEquals("Wrong dependencies", Collections.singleton(library), graph.getDependencies(jar));
+        Assert.assertEquals("Wrong dependents", Collections.singleton(test), graph.getDependents(jar));
+        Assert.assertTrue("Library should be ready", graph.isReady(library));
+        Assert.assertFalse("Jar shouldn't be ready", graph.isReady(jar));
+        Assert.assertEquals("Wrong ready targets", Collections.singletonList(jar), graph.provide(FOO));
+        Assert.assertTrue("Jar should be ready", graph.isReady(jar));
+        Assert.assertTrue("File should only be provided once", graph.provide(FOO).isEmpty());
+        Assert.assertEquals("Wrong ready targets", Collections.singletonList(test), graph.finish(jar));
+        Mockito.verify(match, Mockito.never()).error(Mockito.anyString());
+    }
+
+    @Test
+    public void finish() {
+        Graph graph = new Graph();
+        graph.addProducer(library, FOO);
+        graph.addProducer(jar, BAR);
+        graph.addFile(jar, FOO);
+        graph.addProperty(test, BAR_KEY);
+        graph.build(match, Arrays.asList(test, jar, library));
+        Assert.assertEquals("Wrong outputs", Collections.singleton(FOO), graph.getOutputs(library));
+        // Finishing the library only releases the targets waiting on its own files
+        Assert.assertEquals("Wrong ready targets", Collections.singletonList(jar), graph.finish(library));
+        Assert.assertFalse("Test shouldn't be ready", graph.isReady(test));
+    }
+
+    @Test
+    public void prioritize() {
+        Graph graph = new Graph();
+        graph.addProducer(library, FOO);
+        graph.addProducer(jar, BAR);
+        graph.addFile(jar, FOO);
+        graph.addProperty(test, BAR_KEY);
+        Mockito.when(library.getName()).thenReturn("library");
+        Mockito.when(jar.getName()).thenReturn("jar");
+        Mockito.when(test.getName()).thenReturn("test");
+        graph.build(match, Arrays.asList(test, jar, library));
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("library", 1L);
+        durations.put("jar", 10L);
+        graph.prioritize(durations);
+        // Test hasn't been built before, so it takes the average
+        Assert.assertEquals("Wrong priority", 5, graph.getPriority(test));
+        Assert.assertEquals("Wrong priority", 15, graph.getPriority(jar));
+        Assert.assertEquals("Wrong priority", 16, graph.getPriority(library));
+    }
+
+    @Test
+    public void build_cycle() {
+        Graph graph = new Graph();
+        graph.addProducer(library, FOO);
+        graph.addProducer(jar, BAR);
+        graph.addFile(jar, FOO);
+        graph.addFile(library, BAR);
+        graph.build(match, Arrays.asList(library, jar));
+        Mockito.verify(match, Mockito.times(1)).error(Mockito.anyString());
+    }
+}
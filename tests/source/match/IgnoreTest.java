@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for Ignore.
+ */
+public class IgnoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that hidden files and the out directory are only ignored at the root by default.
+     */
+    @Test
+    public void isIgnored_defaults() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Ignore ignore = new Ignore(root);
+        Assert.assertTrue("Hidden directory should be ignored", ignore.isIgnored(root.resolve(".git"), true));
+        Assert.assertTrue("Out directory should be ignored", ignore.isIgnored(root.resolve("out"), true));
+        Assert.assertFalse("Out file should not be ignored", ignore.isIgnored(root.resolve("out"), false));
+        Assert.assertFalse("Nested hidden file should not be ignored", ignore.isIgnored(root.resolve("a/.b"), false));
+        Assert.assertFalse("Root should not be ignored", ignore.isIgnored(root, true));
+        Assert.assertFalse("Outside root should not be ignored", ignore.isIgnored(root.getParent().resolve(".x"), true));
+    }
+
+    /**
+     * Tests the glob syntax of rules.
+     */
+    @Test
+    public void isIgnored_patterns() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root, "# Comment", "", "node_modules/", "*.log", "/build", "docs/*.tmp", "vendor/**/sdk", "cache/**", "file?.txt", "[ab].o");
+        Ignore ignore = new Ignore(root);
+        Assert.assertTrue(ignore.isIgnored(root.resolve("a/b/node_modules"), true));
+        Assert.assertFalse("Directory rule should not match files", ignore.isIgnored(root.resolve("a/node_modules"), false));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("a/b/c.log"), false));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("build"), true));
+        Assert.assertFalse("Anchored rule should only match at the root", ignore.isIgnored(root.resolve("a/build"), true));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("docs/a.tmp"), false));
+        Assert.assertFalse("Star should not match slashes", ignore.isIgnored(root.resolve("docs/a/b.tmp"), false));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("vendor/sdk"), true));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("vendor/a/b/sdk"), true));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("cache/a"), false));
+        Assert.assertFalse("Trailing stars should not match the directory", ignore.isIgnored(root.resolve("cache"), true));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("file1.txt"), false));
+        Assert.assertFalse(ignore.isIgnored(root.resolve("file10.txt"), false));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("b.o"), false));
+        Assert.assertFalse(ignore.isIgnored(root.resolve("c.o"), false));
+        Assert.assertFalse(ignore.isIgnored(root.resolve("# Comment"), false));
+    }
+
+    /**
+     * Tests that later and deeper rules take precedence, including negated rules.
+     */
+    @Test
+    public void isIgnored_precedence() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root, "*.txt", "!keep.txt", "!/.idea");
+        write(root.resolve("a"), "!*.txt", "keep.txt");
+        Ignore ignore = new Ignore(root);
+        Assert.assertTrue(ignore.isIgnored(root.resolve("b.txt"), false));
+        Assert.assertFalse(ignore.isIgnored(root.resolve("keep.txt"), false));
+        Assert.assertFalse("Negated rule should override default", ignore.isIgnored(root.resolve(".idea"), true));
+        Assert.assertFalse(ignore.isIgnored(root.resolve("a/b.txt"), false));
+        Assert.assertTrue(ignore.isIgnored(root.resolve("a/b/keep.txt"), false));
+    }
+
+    /**
+     * Tests that files are excluded if any directory above them is ignored.
+     */
+    @Test
+    public void isExcluded() throws Exception {
+        Path root = folder.getRoot().toPath();
+        write(root, "a/");
+        Ignore ignore = new Ignore(root);
+        Assert.assertTrue(ignore.isExcluded(root.resolve("a/b/c")));
+        Assert.assertTrue(ignore.isExcluded(root.resolve("out/match/database")));
+        Assert.assertFalse(ignore.isExcluded(root.resolve("b/a")));
+    }
+
+    private static void write(Path directory, String... lines) throws IOException {
+        File file = directory.resolve(Ignore.FILE).toFile();
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}
@@ -118,13 +118,22 @@ public class MatchTest {
     }
 
     /**
-     * Tests correct number of files are loaded.
+     * Tests that workspace files are only registered once they are referenced.
      */
     @Test
     public void loadFiles() throws Exception {
         Match match = createMatch(config);
         match.light();
-        Assert.assertEquals("Wrong number of files", 4, match.getAllFiles().size());
+        Assert.assertEquals("Wrong number of match files", 0, match.getMatchFiles().size());
+        Assert.assertEquals("No files should be registered", 0, match.getFileIndex().size());
+        match.awaitFile(new File(root, "c/d/e").toPath().toString());
+        Assert.assertEquals("Awaited file should be registered", 1, match.getFileIndex().size());
+        try {
+            match.awaitFile(new File(root, "c/d/g").toPath().toString());
+            Assert.fail("Match should fail if workspace file doesn't exist");
+        } catch (ExitException e) {
+            /* ignored */
+        }
     }
 
     private Match createMatch(Config config) {
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for PathTable.
+ */
+public class PathTableTest {
+
+    /**
+     * Tests that paths are given ids sharing their parents and segments, and can be got back.
+     */
+    @Test
+    public void add() throws Exception {
+        PathTable table = new PathTable('/');
+        int foo = table.add("/a/b/foo");
+        int bar = table.add("/a/c/foo");
+        Assert.assertEquals("Wrong id", foo, table.add("/a/b/foo"));
+        Assert.assertEquals("Wrong id", foo, table.getId("/a/b/foo"));
+        Assert.assertEquals("Wrong path", "/a/b/foo", table.getPath(foo));
+        Assert.assertEquals("Wrong path", "/a/c/foo", table.getPath(bar));
+        Assert.assertEquals("Wrong name", "foo", table.getName(foo));
+        Assert.assertEquals("Wrong parent", table.getId("/a/b"), table.getParent(foo));
+        Assert.assertEquals("Wrong child", foo, table.add(table.getId("/a/b"), "foo"));
+        // The empty segment before the first slash, a, b, c and foo
+        Assert.assertEquals("Wrong number of segments", 5, table.getSegmentCount());
+        Assert.assertEquals("Missing path should not have an id", PathTable.MISSING, table.getId("/a/b/bar"));
+        Assert.assertEquals("Missing path should not have an id", PathTable.MISSING, table.getId("/a/d/foo"));
+    }
+
+    /**
+     * Tests that paths round trip exactly, including relative paths and the root.
+     */
+    @Test
+    public void getPath() throws Exception {
+        PathTable table = new PathTable('/');
+        for (String path : new String[] { "/", "a", "a/b", "/a", "//a", "a/" }) {
+            Assert.assertEquals("Wrong path", path, table.getPath(table.add(path)));
+        }
+        Assert.assertEquals("Wrong root path", "", table.getPath(PathTable.ROOT));
+    }
+
+    /**
+     * Tests that the table grows past its initial size.
+     */
+    @Test
+    public void add_many() throws Exception {
+        PathTable table = new PathTable('/');
+        int[] ids = new int[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.add("/root/" + (i % 100) + "/" + i);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals("Wrong id", ids[i], table.getId("/root/" + (i % 100) + "/" + i));
+            Assert.assertEquals("Wrong path", "/root/" + (i % 100) + "/" + i, table.getPath(ids[i]));
+        }
+    }
+
+    /**
+     * Tests that threads adding the same paths at once agree on their ids.
+     */
+    @Test
+    public void add_concurrent() throws Exception {
+        final PathTable table = new PathTable('/');
+        final int paths = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        int[] ids = new int[paths];
+                        for (int i = 0; i < paths; i++) {
+                            ids[i] = table.add("/root/" + (i % 100) + "/" + i);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            int[] ids = futures.get(0).get();
+            for (Future<int[]> future : futures) {
+                Assert.assertArrayEquals("Threads should agree on ids", ids, future.get());
+            }
+            for (int i = 0; i < paths; i++) {
+                Assert.assertEquals("Wrong path", "/root/" + (i % 100) + "/" + i, table.getPath(ids[i]));
+            }
+            // The root, the empty first segment, root, its 100 children and the files
+            Assert.assertEquals("Wrong number of paths", 3 + 100 + paths, table.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
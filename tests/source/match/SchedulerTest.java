@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for Scheduler.
+ */
+public class SchedulerTest {
+
+    private static final int JOBS = 2;
+    private static final int TARGETS = 8;
+    private static final String FILE = "/foo/bar";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * Tests that no more than the configured number of targets run at once.
+     */
+    @Test
+    public void build_bounded() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        Graph graph = new Graph();
+        Scheduler scheduler = new Scheduler(match, graph, JOBS);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maximum = new AtomicInteger();
+        List<ITarget> targets = new ArrayList<>();
+        for (int i = 0; i < TARGETS; i++) {
+            targets.add(createTarget(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Exception {
+                    int count = running.incrementAndGet();
+                    while (true) {
+                        int max = maximum.get();
+                        if (count <= max || maximum.compareAndSet(max, count)) {
+                            break;
+                        }
+                    }
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        Assert.assertTrue("Build should finish", scheduler.build(graph.build(match, targets), 1, TimeUnit.MINUTES));
+        Assert.assertEquals("Wrong number of concurrent targets", JOBS, maximum.get());
+        for (ITarget target : targets) {
+            Mockito.verify(target, Mockito.times(1)).build();
+        }
+    }
+
+    /**
+     * Tests that targets are all built in virtual thread mode, falling back to platform threads on
+     * JVMs without virtual threads.
+     */
+    @Test
+    public void build_virtual() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        Graph graph = new Graph();
+        final Scheduler scheduler = new Scheduler(match, graph, JOBS, true);
+        final AtomicInteger built = new AtomicInteger();
+        List<ITarget> targets = new ArrayList<>();
+        for (int i = 0; i < TARGETS; i++) {
+            targets.add(createTarget(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Exception {
+                    scheduler.block();
+                    Thread.sleep(10);
+                    scheduler.unblock();
+                    built.incrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        Assert.assertTrue("Build should finish", scheduler.build(graph.build(match, targets), 1, TimeUnit.MINUTES));
+        Assert.assertEquals("Wrong number of targets built", TARGETS, built.get());
+        if (!scheduler.isVirtual()) {
+            Mockito.verify(match, Mockito.times(1)).warn(Mockito.anyString());
+        }
+    }
+
+    /**
+     * Tests that a blocked target frees its slot for other targets.
+     */
+    @Test
+    public void build_blocked() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        Graph graph = new Graph();
+        final Scheduler scheduler = new Scheduler(match, graph, 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<ITarget> targets = new ArrayList<>();
+        targets.add(createTarget(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                scheduler.block();
+                try {
+                    latch.await();
+                } finally {
+                    scheduler.unblock();
+                }
+                return null;
+            }
+        }));
+        targets.add(createTarget(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                latch.countDown();
+                return null;
+            }
+        }));
+        Assert.assertTrue("Build should finish", scheduler.build(graph.build(match, targets), 1, TimeUnit.MINUTES));
+    }
+
+    /**
+     * Tests that a target isn't started until the files it consumes have been provided.
+     */
+    @Test
+    public void build_dependencies() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        Graph graph = new Graph();
+        final Scheduler scheduler = new Scheduler(match, graph, JOBS);
+        final AtomicInteger built = new AtomicInteger();
+        final AtomicBoolean ordered = new AtomicBoolean();
+        List<ITarget> targets = new ArrayList<>();
+        ITarget consumer = createTarget(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                ordered.set(built.get() == 1);
+                return null;
+            }
+        });
+        ITarget producer = createTarget(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                Thread.sleep(10);
+                built.incrementAndGet();
+                scheduler.provide(FILE);
+                return null;
+            }
+        });
+        targets.add(consumer);
+        targets.add(producer);
+        graph.addProducer(producer, FILE);
+        graph.addFile(consumer, FILE);
+        Assert.assertTrue("Build should finish", scheduler.build(graph.build(match, targets), 1, TimeUnit.MINUTES));
+        Assert.assertTrue("Consumer should start after producer provided file", ordered.get());
+    }
+
+    /**
+     * Tests that the ready target on the longest path to the end of the build is started first.
+     */
+    @Test
+    public void build_criticalPath() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        Graph graph = new Graph();
+        final Scheduler scheduler = new Scheduler(match, graph, 1);
+        final List<ITarget> started = Collections.synchronizedList(new ArrayList<ITarget>());
+        Answer<Void> answer = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                ITarget target = (ITarget) invocation.getMock();
+                started.add(target);
+                scheduler.provide(target.getName());
+                return null;
+            }
+        };
+        ITarget shortTarget = createTarget(answer);
+        ITarget longTarget = createTarget(answer);
+        ITarget tailTarget = createTarget(answer);
+        graph.addProducer(longTarget, longTarget.getName());
+        graph.addFile(tailTarget, longTarget.getName());
+        List<ITarget> order = graph.build(match, Arrays.asList(shortTarget, longTarget, tailTarget));
+        Map<String, Long> durations = new HashMap<>();
+        durations.put(shortTarget.getName(), 10L);
+        durations.put(longTarget.getName(), 10L);
+        durations.put(tailTarget.getName(), 100L);
+        graph.prioritize(durations);
+        // As if it were up to date, so its function didn't run
+        Mockito.when(shortTarget.getDuration()).thenReturn(-1L);
+        Assert.assertTrue("Build should finish", scheduler.build(order, 1, TimeUnit.MINUTES));
+        Assert.assertEquals("Wrong start order", Arrays.asList(longTarget, tailTarget, shortTarget), started);
+        Assert.assertEquals("Wrong number of durations", 2, scheduler.getDurations().size());
+        Assert.assertFalse("Skipped target shouldn't have a duration", scheduler.getDurations().containsKey(shortTarget.getName()));
+    }
+
+    private static ITarget createTarget(Answer<Void> answer) {
+        ITarget target = Mockito.mock(ITarget.class);
+        String name = "Target" + COUNTER.incrementAndGet();
+        Mockito.when(target.getName()).thenReturn(name);
+        Mockito.doAnswer(answer).when(target).build();
+        return target;
+    }
+}
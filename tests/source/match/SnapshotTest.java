@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for Snapshot.
+ */
+public class SnapshotTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that unchanged directories are reused from the snapshot, and changed ones listed again.
+     */
+    @Test
+    public void reuse() throws Exception {
+        File root = folder.newFolder("root");
+        MatchTest.createFileStructure(root);
+        File file = new File(folder.getRoot(), "snapshot");
+        // Make the directories old enough that their listings can be trusted
+        long past = System.currentTimeMillis() - HOUR;
+        for (String directory : Arrays.asList("", "a", "c", "c/d")) {
+            Assert.assertTrue(new File(root, directory).setLastModified(past));
+        }
+        Snapshot snapshot = walk(root, file);
+        Assert.assertEquals("Wrong number of listed directories", 4, snapshot.getListedCount());
+
+        snapshot = walk(root, file);
+        Assert.assertEquals("Wrong number of listed directories", 0, snapshot.getListedCount());
+        Assert.assertEquals("Wrong number of reused directories", 4, snapshot.getReusedCount());
+
+        Assert.assertTrue(new File(root, "c/d/g").createNewFile());
+        Set<String> files = new TreeSet<>();
+        snapshot = walk(root, file, files);
+        Assert.assertEquals("Only the changed directory should be listed", 1, snapshot.getListedCount());
+        Assert.assertEquals("Wrong files", new TreeSet<>(Arrays.asList("a/b", "bar", "c/d/e", "c/d/f", "c/d/g")), files);
+    }
+
+    /**
+     * Tests that a directory which changed around the time of the snapshot is listed again.
+     */
+    @Test
+    public void reuse_racy() throws Exception {
+        File root = folder.newFolder("root");
+        MatchTest.createFileStructure(root);
+        File file = new File(folder.getRoot(), "snapshot");
+        walk(root, file);
+        Snapshot snapshot = walk(root, file);
+        Assert.assertEquals("Recently changed directories should be listed", 4, snapshot.getListedCount());
+    }
+
+    private static Snapshot walk(File root, File file) throws Exception {
+        return walk(root, file, new TreeSet<String>());
+    }
+
+    private static Snapshot walk(File root, File file, final Set<String> files) throws Exception {
+        final Path directory = root.toPath().toAbsolutePath();
+        PathTable paths = new PathTable();
+        Snapshot snapshot = new Snapshot(paths);
+        snapshot.load(file, directory);
+        new Walker(paths, ForkJoinPool.commonPool(), snapshot).walk(directory, new Walker.IVisitor() {
+            @Override
+            public boolean visit(Path path, int id, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    synchronized (files) {
+                        files.add(directory.relativize(path).toString().replace(File.separatorChar, '/'));
+                    }
+                }
+                return true;
+            }
+        });
+        snapshot.save(file, directory);
+        return snapshot;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for StatCache.
+ */
+public class StatCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that digests are reused across builds until the file changes.
+     */
+    @Test
+    public void hash() throws Exception {
+        File file = folder.newFile("foo");
+        File stats = new File(folder.getRoot(), "stats");
+        Files.write(file.toPath(), "foo".getBytes(StandardCharsets.UTF_8));
+        String expected = new Hasher().hash(file);
+        // Change time can't be set, so wait until the file is old enough to be trusted
+        Thread.sleep(2100);
+
+        StatCache cache = new StatCache();
+        Assert.assertEquals("Wrong digest", expected, new Hasher(null, cache).hash(file));
+        Assert.assertEquals("Wrong number of misses", 1, cache.getMissCount());
+        cache.save(stats);
+
+        cache = new StatCache();
+        cache.load(stats);
+        Assert.assertEquals("Wrong digest", expected, new Hasher(null, cache).hash(file));
+        Assert.assertEquals("Digest should be reused", 1, cache.getHitCount());
+        Assert.assertEquals("Wrong number of misses", 0, cache.getMissCount());
+
+        // Same size and modification time, but different contents
+        FileTime modified = Files.getLastModifiedTime(file.toPath());
+        Files.write(file.toPath(), "bar".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), modified);
+        Assert.assertEquals("Wrong digest", new Hasher().hash(file), new Hasher(null, cache).hash(file));
+        Assert.assertEquals("Changed file should be hashed", 1, cache.getMissCount());
+    }
+
+    /**
+     * Tests that digests of files which changed too recently aren't stored.
+     */
+    @Test
+    public void put_racy() throws Exception {
+        File file = folder.newFile("foo");
+        StatCache cache = new StatCache();
+        Hasher hasher = new Hasher(null, cache);
+        hasher.hash(file);
+        hasher.hash(file);
+        Assert.assertEquals("Recently changed file should be hashed again", 2, cache.getMissCount());
+        Files.setLastModifiedTime(file.toPath(), FileTime.from(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS));
+        hasher.hash(file);
+        Assert.assertEquals("Recent change time should also be untrusted", 3, cache.getMissCount());
+    }
+}
@@ -17,11 +17,13 @@
 package match;
 
 import java.io.File;
+import java.util.Properties;
 
 import match.IMatch;
 import match.ITarget;
 import match.expression.function.IFunction;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -37,4 +39,40 @@ public class TargetTest {
         Mockito.verify(function, Mockito.times(1)).resolve();
     }
 
+    @Test
+    public void build_upToDate() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        IFunction function = Mockito.mock(IFunction.class);
+        Database database = Mockito.mock(Database.class);
+        Mockito.when(match.getDatabase()).thenReturn(database);
+        Mockito.when(function.isReproducible()).thenReturn(true);
+        ITarget target = new Target(match, new File("/tmp/match"));
+        target.setFunction(function);
+        Properties record = new Properties();
+        Mockito.when(database.fingerprint(target)).thenReturn(record);
+        Mockito.when(database.isUpToDate(target, record)).thenReturn(true);
+        target.build();
+        Mockito.verify(function, Mockito.never()).resolve();
+        Mockito.verify(database, Mockito.never()).store(target, record);
+        Assert.assertTrue("Target should be built", target.isBuilt());
+        Assert.assertEquals("Up to date target shouldn't have a duration", -1, target.getDuration());
+    }
+
+    @Test
+    public void build_outOfDate() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        IFunction function = Mockito.mock(IFunction.class);
+        Database database = Mockito.mock(Database.class);
+        Mockito.when(match.getDatabase()).thenReturn(database);
+        Mockito.when(function.isReproducible()).thenReturn(true);
+        ITarget target = new Target(match, new File("/tmp/match"));
+        target.setFunction(function);
+        Properties record = new Properties();
+        Mockito.when(database.fingerprint(target)).thenReturn(record);
+        target.build();
+        Mockito.verify(function, Mockito.times(1)).resolve();
+        Mockito.verify(database, Mockito.times(1)).store(target, record);
+        Assert.assertTrue("Built target should have a duration", target.getDuration() >= 0);
+    }
+
 }
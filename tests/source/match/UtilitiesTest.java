@@ -49,4 +49,18 @@ public class UtilitiesTest {
         Assert.assertEquals("Incorrect join", "foo:bar:blah", Utilities.<String>join(SEPARATOR, list));
     }
 
+    @Test
+    public void expand() {
+        String home = System.getenv("HOME");
+        Assert.assertEquals("Incorrect expansion", home + "/foo", Utilities.expand("$HOME/foo"));
+        Assert.assertEquals("Incorrect expansion", home + "foo", Utilities.expand("${HOME}foo"));
+        Assert.assertEquals("Incorrect expansion", home + "/foo", Utilities.expand("~/foo"));
+    }
+
+    @Test
+    public void expand_none() {
+        Assert.assertEquals("Incorrect expansion", "foo/~/$/${", Utilities.expand("foo/~/$/${"));
+        Assert.assertEquals("Incorrect expansion", "foo/", Utilities.expand("foo/$MATCH_UNSET_VARIABLE"));
+    }
+
 }
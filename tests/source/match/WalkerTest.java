@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for Walker.
+ */
+public class WalkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that every file is visited with its id, except under skipped directories.
+     */
+    @Test
+    public void walk() throws Exception {
+        File root = folder.getRoot();
+        MatchTest.createFileStructure(root);
+        final PathTable paths = new PathTable();
+        final Set<String> files = new TreeSet<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new Walker(paths, pool).walk(root.toPath(), new Walker.IVisitor() {
+                @Override
+                public boolean visit(Path path, int id, BasicFileAttributes attributes) {
+                    Assert.assertEquals("Wrong id", path.toString(), paths.getPath(id));
+                    if (attributes.isRegularFile()) {
+                        synchronized (files) {
+                            files.add(relativize(path));
+                        }
+                    }
+                    return !path.getFileName().toString().equals("a");
+                }
+
+                private String relativize(Path path) {
+                    return folder.getRoot().toPath().toAbsolutePath().relativize(path).toString().replace(File.separatorChar, '/');
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals("Wrong files", new TreeSet<>(Arrays.asList("bar", "c/d/e", "c/d/f")), files);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for ArchiveReader.
+ */
+public class ArchiveReaderTest {
+
+    private static final String FOO = "foo";
+    private static final String BAR = "bar/";
+    private static final String BAZ = "bar/baz";
+    private static final String CONTENTS = "Hello, world! Hello, world! Hello, world!";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that entries written by the zip library are read and can be copied into another archive.
+     */
+    @Test
+    public void read() throws Exception {
+        byte[] bytes = CONTENTS.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        File zip = folder.newFile("foo.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            out.putNextEntry(new ZipEntry(FOO));
+            out.write(bytes);
+            out.putNextEntry(new ZipEntry(BAR));
+            ZipEntry stored = new ZipEntry(BAZ);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(bytes);
+            out.setComment(FOO);
+        } finally {
+            out.close();
+        }
+        File copy = new File(folder.getRoot(), "copy.zip");
+        ArchiveReader reader = new ArchiveReader(zip);
+        try {
+            List<String> names = new ArrayList<>();
+            for (ArchiveReader.Entry entry : reader.getEntries()) {
+                names.add(entry.getName());
+            }
+            Assert.assertEquals("Wrong entries", Arrays.asList(FOO, BAR, BAZ), names);
+            ArchiveReader.Entry entry = reader.getEntry(FOO);
+            Assert.assertEquals("Wrong method", ZipEntry.DEFLATED, entry.getMethod());
+            Assert.assertEquals("Wrong size", bytes.length, entry.getSize());
+            Assert.assertEquals("Wrong crc", crc.getValue(), entry.getCrc());
+            Assert.assertTrue("Entry should be a directory", reader.getEntry(BAR).isDirectory());
+            Assert.assertEquals("Wrong stored size", bytes.length, reader.getEntry(BAZ).getCompressedSize());
+            ArchiveWriter writer = new ArchiveWriter(copy);
+            try {
+                for (ArchiveReader.Entry e : reader.getEntries()) {
+                    writer.copy(reader, e);
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+        ZipFile file = new ZipFile(copy);
+        try {
+            for (String name : Arrays.asList(FOO, BAZ)) {
+                Scanner scanner = new Scanner(file.getInputStream(file.getEntry(name)), "UTF-8");
+                try {
+                    Assert.assertEquals("Wrong contents of " + name, CONTENTS, scanner.nextLine());
+                } finally {
+                    scanner.close();
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import match.Utilities;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for ArchiveWriter.
+ */
+public class ArchiveWriterTest {
+
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write() throws Exception {
+        File directory = folder.newFolder();
+        new File(directory, FOO).mkdirs();
+        Utilities.writeStringToFile(BAR, new File(directory, FOO + "/" + BAR));
+        Utilities.writeStringToFile(FOO, new File(directory, BAR));
+        File jar = write(directory);
+        JarFile file = new JarFile(jar);
+        try {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(file.entries())) {
+                names.add(entry.getName());
+                Assert.assertEquals("Wrong time for " + entry.getName(), ArchiveWriter.TIME, entry.getTime());
+            }
+            Assert.assertEquals("Wrong entries", Arrays.asList("META-INF/", JarFile.MANIFEST_NAME, BAR, FOO + "/", FOO + "/" + BAR), names);
+            Assert.assertEquals("Wrong main class", FOO, file.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+        } finally {
+            file.close();
+        }
+        // Writing the same files again gives the same bytes
+        Assert.assertArrayEquals("Archive should be reproducible", Files.readAllBytes(jar.toPath()), Files.readAllBytes(write(directory).toPath()));
+    }
+
+    /**
+     * Tests that a file spanning several blocks is deflated into a single entry, and that the
+     * archive doesn't depend on the number of threads.
+     */
+    @Test
+    public void write_blocks() throws Exception {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 123];
+        Random random = new Random(0);
+        for (int i = 0; i < bytes.length; i++) {
+            // Compressible, but not trivially
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        File single = write(file, 1);
+        File parallel = write(file, 4);
+        Assert.assertArrayEquals("Archive should not depend on threads", Files.readAllBytes(single.toPath()), Files.readAllBytes(parallel.toPath()));
+        ZipFile zip = new ZipFile(parallel);
+        try {
+            ZipEntry entry = zip.getEntry(FOO);
+            Assert.assertEquals("Wrong method", ZipEntry.DEFLATED, entry.getMethod());
+            Assert.assertEquals("Wrong size", bytes.length, entry.getSize());
+            Assert.assertTrue("Entry should be compressed", entry.getCompressedSize() < bytes.length);
+            byte[] read = new byte[bytes.length];
+            DataInputStream in = new DataInputStream(zip.getInputStream(entry));
+            try {
+                in.readFully(read);
+                Assert.assertEquals("Entry should end", -1, in.read());
+            } finally {
+                in.close();
+            }
+            Assert.assertArrayEquals("Wrong contents", bytes, read);
+            Assert.assertEquals("Wrong empty entry", 0, zip.getEntry(BAR).getSize());
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Tests that updating an archive only rewrites it if something changed, and gives the same
+     * archive as writing it from scratch.
+     */
+    @Test
+    public void write_update() throws Exception {
+        File directory = folder.newFolder();
+        new File(directory, FOO).mkdirs();
+        Utilities.writeStringToFile(BAR, new File(directory, FOO + "/" + BAR));
+        Utilities.writeStringToFile(FOO, new File(directory, BAR));
+        byte[] bytes = new byte[2 * 1024 * 1024];
+        Arrays.fill(bytes, (byte) 'a');
+        File large = new File(directory, "large");
+        Files.write(large.toPath(), bytes);
+        File zip = new File(folder.newFolder(), "foo.zip");
+        Assert.assertTrue("New archive should be written", update(zip, directory));
+        Assert.assertFalse("Unchanged archive should not be written", update(zip, directory));
+        // Same sizes, different contents
+        Utilities.writeStringToFile("baz", new File(directory, BAR));
+        bytes[bytes.length / 2] = 'b';
+        Files.write(large.toPath(), bytes);
+        Assert.assertTrue("Changed archive should be written", update(zip, directory));
+        File fresh = new File(folder.newFolder(), "foo.zip");
+        ArchiveWriter writer = new ArchiveWriter(fresh);
+        try {
+            writer.addContents(directory);
+        } finally {
+            writer.close();
+        }
+        Assert.assertArrayEquals("Updated archive should match a new one", Files.readAllBytes(fresh.toPath()), Files.readAllBytes(zip.toPath()));
+        Assert.assertTrue("Deleted file should be removed", large.delete());
+        Assert.assertTrue("Archive with fewer entries should be written", update(zip, directory));
+        ZipFile file = new ZipFile(zip);
+        try {
+            Assert.assertEquals("Wrong number of entries", 3, file.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Checks that an entry is rewritten when only its size and CRC-32 match the old one.
+     */
+    @Test
+    public void write_updateCollision() throws Exception {
+        File directory = folder.newFolder();
+        byte[] small = new byte[64];
+        byte[] large = new byte[2 * 1024 * 1024];
+        new Random(1).nextBytes(small);
+        new Random(2).nextBytes(large);
+        Files.write(new File(directory, FOO).toPath(), small);
+        Files.write(new File(directory, BAR).toPath(), large);
+        File zip = new File(folder.newFolder(), "foo.zip");
+        Assert.assertTrue("New archive should be written", update(zip, directory));
+        long smallCrc = crc(small);
+        long largeCrc = crc(large);
+        small[0]++;
+        large[large.length / 2]++;
+        forge(small, smallCrc);
+        forge(large, largeCrc);
+        Files.write(new File(directory, FOO).toPath(), small);
+        Files.write(new File(directory, BAR).toPath(), large);
+        Assert.assertTrue("Changed archive should be written", update(zip, directory));
+        ZipFile file = new ZipFile(zip);
+        try {
+            Assert.assertArrayEquals("Wrong small entry", small, read(file, FOO));
+            Assert.assertArrayEquals("Wrong large entry", large, read(file, BAR));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void combine() throws Exception {
+        byte[] first = FOO.getBytes("UTF-8");
+        byte[] second = BAR.getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(first);
+        long a = crc.getValue();
+        crc.reset();
+        crc.update(second);
+        long b = crc.getValue();
+        crc.reset();
+        crc.update(first);
+        crc.update(second);
+        Assert.assertEquals("Wrong combined crc", crc.getValue(), ArchiveWriter.combine(a, b, second.length));
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Sets the last four bytes so the CRC-32 of the bytes is the given value, using the fact that
+     * the CRC is linear in the bits of the message.
+     */
+    private static void forge(byte[] bytes, long target) {
+        int end = bytes.length - 4;
+        Arrays.fill(bytes, end, bytes.length, (byte) 0);
+        long base = crc(bytes);
+        long[] values = new long[32];
+        long[] combinations = new long[32];
+        for (int i = 0; i < 32; i++) {
+            bytes[end + i / 8] = (byte) (bytes[end + i / 8] ^ (1 << (i % 8)));
+            long value = crc(bytes) ^ base;
+            bytes[end + i / 8] = (byte) (bytes[end + i / 8] ^ (1 << (i % 8)));
+            long combination = 1L << i;
+            for (int bit = 31; bit >= 0 && value != 0; bit--) {
+                if ((value >> bit & 1) == 0) {
+                    continue;
+                }
+                if (values[bit] == 0) {
+                    values[bit] = value;
+                    combinations[bit] = combination;
+                    break;
+                }
+                value ^= values[bit];
+                combination ^= combinations[bit];
+            }
+        }
+        long remaining = target ^ base;
+        long flips = 0;
+        for (int bit = 31; bit >= 0; bit--) {
+            if ((remaining >> bit & 1) != 0) {
+                remaining ^= values[bit];
+                flips ^= combinations[bit];
+            }
+        }
+        for (int i = 0; i < 32; i++) {
+            if ((flips >> i & 1) != 0) {
+                bytes[end + i / 8] = (byte) (bytes[end + i / 8] ^ (1 << (i % 8)));
+            }
+        }
+        Assert.assertEquals("Couldn't forge crc", target, crc(bytes));
+    }
+
+    private static byte[] read(ZipFile file, String name) throws Exception {
+        DataInputStream in = new DataInputStream(file.getInputStream(file.getEntry(name)));
+        try {
+            byte[] bytes = new byte[(int) file.getEntry(name).getSize()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean update(File zip, File directory) throws Exception {
+        ArchiveWriter writer = new ArchiveWriter(zip, null, true);
+        try {
+            writer.addContents(directory);
+        } finally {
+            writer.close();
+        }
+        return writer.isModified();
+    }
+
+    private File write(File file, int threads) throws Exception {
+        File zip = new File(folder.newFolder(), "foo.zip");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArchiveWriter writer = new ArchiveWriter(zip, null, false, executor, threads);
+            try {
+                writer.add(FOO, file);
+                writer.add(BAR, new byte[0]);
+            } finally {
+                writer.close();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return zip;
+    }
+
+    private File write(File directory) throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, FOO);
+        File jar = new File(folder.newFolder(), "foo.jar");
+        ArchiveWriter writer = new ArchiveWriter(jar, manifest);
+        try {
+            writer.addContents(directory);
+        } finally {
+            writer.close();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.archive;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import match.Utilities;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for JarMerger.
+ */
+public class JarMergerTest {
+
+    private static final String OWN = "own.txt";
+    private static final String COMMON = "common.txt";
+    private static final String SERVICE = "META-INF/services/foo.Service";
+    private static final String SIGNATURE = "META-INF/FOO.SF";
+    private static final List<Pattern> SERVICES = Collections.singletonList(Pattern.compile(JarMerger.SERVICES));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that library entries are merged into the jar, keeping the jar's own entries and the
+     * first library's duplicates, combining service files and leaving out signatures.
+     */
+    @Test
+    public void merge_first() throws Exception {
+        File service = folder.newFile();
+        Utilities.writeStringToFile("foo.Own", service);
+        JarFile jar = new JarFile(merge(JarMerger.FIRST, Collections.singletonMap(SERVICE, service)));
+        try {
+            Assert.assertEquals("Wrong own entry", "own", read(jar, OWN));
+            Assert.assertEquals("Wrong duplicate", "one", read(jar, COMMON));
+            Assert.assertEquals("Wrong service file", "foo.Own\nfoo.One\nfoo.Two\n", read(jar, SERVICE));
+            Assert.assertNotNull("Library class should be merged", jar.getEntry("a/A.class"));
+            Assert.assertNotNull("Library class should be merged", jar.getEntry("b/B.class"));
+            Assert.assertNull("Signature should be left out", jar.getEntry(SIGNATURE));
+            Assert.assertEquals("Wrong main class", OWN, jar.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+        } finally {
+            jar.close();
+        }
+    }
+
+    @Test
+    public void merge_last() throws Exception {
+        JarFile jar = new JarFile(merge(JarMerger.LAST, Collections.<String, File>emptyMap()));
+        try {
+            Assert.assertEquals("Wrong duplicate", "two", read(jar, COMMON));
+            Assert.assertEquals("Wrong service file", "foo.One\nfoo.Two\n", read(jar, SERVICE));
+        } finally {
+            jar.close();
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void merge_error() throws Exception {
+        merge(JarMerger.ERROR, Collections.<String, File>emptyMap());
+    }
+
+    /**
+     * Tests that a duplicate among the jar's own entries fails, even though library duplicates and
+     * the jar's own copies of combined entries are skipped.
+     */
+    @Test(expected = ZipException.class)
+    public void merge_ownDuplicate() throws Exception {
+        File service = folder.newFile();
+        Utilities.writeStringToFile("foo.Own", service);
+        merge(JarMerger.FIRST, Collections.singletonMap(SERVICE, service), OWN);
+    }
+
+    private File merge(String duplicate, Map<String, File> files, String... extra) throws Exception {
+        File one = library("one", "a/A.class", "foo.One");
+        File two = library("two", "b/B.class", "foo.Two\n");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, OWN);
+        File jar = new File(folder.newFolder(), "fat.jar");
+        JarMerger merger = new JarMerger(Arrays.asList(one, two), duplicate, SERVICES);
+        try {
+            ArchiveWriter writer = new ArchiveWriter(jar, manifest);
+            try {
+                merger.addMerged(writer, files);
+                writer.add(OWN, "own".getBytes(StandardCharsets.UTF_8));
+                for (String name : files.keySet()) {
+                    writer.add(name, files.get(name));
+                }
+                for (String name : extra) {
+                    writer.add(name, "extra".getBytes(StandardCharsets.UTF_8));
+                }
+                merger.addEntries(writer);
+            } finally {
+                writer.close();
+            }
+        } finally {
+            merger.close();
+        }
+        return jar;
+    }
+
+    private File library(String name, String type, String service) throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, name);
+        File jar = new File(folder.getRoot(), name + ".jar");
+        ArchiveWriter writer = new ArchiveWriter(jar, manifest);
+        try {
+            writer.add(type, name.getBytes(StandardCharsets.UTF_8));
+            writer.add(COMMON, name.getBytes(StandardCharsets.UTF_8));
+            writer.add(SERVICE, service.getBytes(StandardCharsets.UTF_8));
+            writer.add(SIGNATURE, name.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            writer.close();
+        }
+        return jar;
+    }
+
+    private static String read(JarFile jar, String name) throws Exception {
+        ZipEntry entry = jar.getEntry(name);
+        Assert.assertNotNull("Missing " + name, entry);
+        byte[] bytes = new byte[(int) entry.getSize()];
+        DataInputStream in = new DataInputStream(jar.getInputStream(entry));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Properties;
+
+import match.Database;
+import match.Graph;
+import match.Hasher;
+import match.IMatch;
+import match.ITarget;
+import match.Utilities;
+import match.expression.IExpression;
+import match.expression.function.IFunction;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+/**
+ * Tests for ActionCache.
+ */
+public class ActionCacheTest {
+
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ICache cache;
+
+    /**
+     * Sets up a local cache shared by each checkout.
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder();
+        cache = new LocalCache(directory);
+    }
+
+    @Test
+    public void restore() throws Exception {
+        Checkout first = new Checkout();
+        Utilities.writeStringToFile(BAR, first.output);
+        Properties record = first.database.fingerprint(first.target);
+        first.database.addOutput(first.target, first.output.getAbsolutePath());
+        first.database.store(first.target, record);
+        first.actions.save(first.target, record);
+
+        Checkout second = new Checkout();
+        Properties restored = second.database.fingerprint(second.target);
+        Assert.assertEquals("Wrong fingerprint", record.getProperty(Database.FINGERPRINT), restored.getProperty(Database.FINGERPRINT));
+        Assert.assertTrue("Target should be restored", second.actions.restore(second.target, restored));
+        Assert.assertEquals("Wrong output", BAR, new String(Files.readAllBytes(second.output.toPath()), StandardCharsets.UTF_8));
+        Assert.assertEquals("Wrong command", BAR, restored.getProperty(Database.COMMAND + 0));
+        Mockito.verify(second.match, Mockito.times(1)).provideFile(second.output);
+    }
+
+    @Test
+    public void restore_missing() throws Exception {
+        Checkout checkout = new Checkout();
+        Properties record = checkout.database.fingerprint(checkout.target);
+        Assert.assertFalse("Target shouldn't be restored", checkout.actions.restore(checkout.target, record));
+        Assert.assertFalse("Output shouldn't exist", checkout.output.exists());
+        Mockito.verify(checkout.match, Mockito.never()).provideFile(Mockito.any(File.class));
+    }
+
+    /**
+     * Tests that an output whose blob doesn't match its digest isn't restored.
+     */
+    @Test
+    public void restore_corrupt() throws Exception {
+        Checkout first = new Checkout();
+        Utilities.writeStringToFile(BAR, first.output);
+        Properties record = first.database.fingerprint(first.target);
+        first.database.addOutput(first.target, first.output.getAbsolutePath());
+        first.database.store(first.target, record);
+        first.actions.save(first.target, record);
+        File blob = new File(directory, LocalCache.BLOBS + "/" + new Hasher().hash(first.output));
+        Utilities.writeStringToFile(FOO, blob);
+
+        Checkout second = new Checkout();
+        Properties restored = second.database.fingerprint(second.target);
+        Assert.assertFalse("Target shouldn't be restored", second.actions.restore(second.target, restored));
+        Assert.assertFalse("Corrupt output should be removed", second.output.exists());
+        Mockito.verify(second.match, Mockito.never()).provideFile(Mockito.any(File.class));
+        Assert.assertFalse("Corrupt blob should be deleted", blob.exists());
+    }
+
+    /**
+     * A copy of a workspace holding a single target, which reads one file and writes another.
+     */
+    private class Checkout {
+
+        private final IMatch match = Mockito.mock(IMatch.class);
+        private final ITarget target = Mockito.mock(ITarget.class);
+        private final Database database;
+        private final ActionCache actions;
+        private final File output;
+
+        private Checkout() throws Exception {
+            File root = folder.newFolder();
+            File input = new File(root, FOO);
+            Utilities.writeStringToFile(FOO, input);
+            output = new File(root, BAR);
+            IFunction function = Mockito.mock(IFunction.class);
+            Mockito.when(function.getParameters()).thenReturn(Collections.<String, IExpression>emptyMap());
+            Mockito.when(target.getName()).thenReturn(FOO);
+            Mockito.when(target.getFunction()).thenReturn(function);
+            Mockito.when(target.getDirectory()).thenReturn(root);
+            Mockito.when(target.getCommands()).thenReturn(Collections.singletonList(BAR));
+            Mockito.when(match.getRootDir()).thenReturn(root);
+            Mockito.when(match.getHasher()).thenReturn(new Hasher());
+            Graph graph = new Graph();
+            graph.addFile(target, input.getAbsolutePath());
+            graph.build(match, Collections.singletonList(target));
+            database = new Database(match, graph, new Hasher(), new File(root, Database.DATABASE));
+            actions = new ActionCache(match, database, cache);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.cache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import match.Hasher;
+import match.IMatch;
+import match.Utilities;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+/**
+ * Tests for RemoteCache.
+ */
+public class RemoteCacheTest {
+
+    private static final String KEY = "0123456789abcdef";
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IMatch match;
+    private File directory;
+    private CacheServer server;
+    private RemoteCache cache;
+
+    /**
+     * Starts a server on a free port.
+     */
+    @Before
+    public void setUp() throws Exception {
+        match = Mockito.mock(IMatch.class);
+        directory = folder.newFolder();
+        server = new CacheServer(directory, 0);
+        server.start();
+        cache = new RemoteCache(match, server.getUrl());
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void action() throws Exception {
+        Assert.assertNull("Action shouldn't be cached", cache.getAction(KEY));
+        Properties action = new Properties();
+        action.setProperty(FOO, BAR);
+        cache.putAction(KEY, action);
+        cache.flush();
+        Assert.assertEquals("Wrong action", action, cache.getAction(KEY));
+    }
+
+    @Test
+    public void blob() throws Exception {
+        File input = folder.newFile(FOO);
+        Utilities.writeStringToFile(FOO, input);
+        String digest = new Hasher().hash(input);
+        File output = new File(folder.getRoot(), BAR);
+        Assert.assertFalse("Blob shouldn't be cached", cache.getBlob(digest, output));
+        Assert.assertFalse("Output shouldn't exist", output.exists());
+        cache.putBlob(digest, input);
+        // The file is copied before it is queued, so changing it doesn't change the upload
+        Utilities.writeStringToFile(BAR, input);
+        cache.flush();
+        Assert.assertTrue("Blob should be cached", cache.getBlob(digest, output));
+        Assert.assertEquals("Wrong blob", FOO, new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests that the server rejects a blob which doesn't match its digest.
+     */
+    @Test
+    public void blob_mismatch() throws Exception {
+        File input = folder.newFile(FOO);
+        Utilities.writeStringToFile(FOO, input);
+        cache.putBlob(KEY, input);
+        cache.flush();
+        Assert.assertFalse("Blob shouldn't be cached", cache.getBlob(KEY, new File(folder.getRoot(), BAR)));
+        Mockito.verify(match, Mockito.times(1)).warn(Mockito.anyString());
+    }
+
+    @Test
+    public void layered() throws Exception {
+        Properties action = new Properties();
+        action.setProperty(FOO, BAR);
+        cache.putAction(KEY, action);
+        cache.flush();
+        LocalCache local = new LocalCache(folder.newFolder());
+        ICache layered = new LayeredCache(local, cache);
+        Assert.assertEquals("Wrong action", action, layered.getAction(KEY));
+        Assert.assertEquals("Action should be copied to the local cache", action, local.getAction(KEY));
+    }
+
+    /**
+     * Tests that a blob corrupted on the server isn't restored or copied into the local cache.
+     */
+    @Test
+    public void layered_corrupt() throws Exception {
+        File input = folder.newFile(FOO);
+        Utilities.writeStringToFile(FOO, input);
+        String digest = new Hasher().hash(input);
+        cache.putBlob(digest, input);
+        cache.flush();
+        Utilities.writeStringToFile(BAR, new File(directory, LocalCache.BLOBS + "/" + digest));
+        File local = folder.newFolder();
+        ICache layered = new LayeredCache(new LocalCache(local), cache);
+        File output = new File(folder.getRoot(), BAR);
+        Assert.assertFalse("Corrupt blob shouldn't be restored", layered.getBlob(digest, output));
+        Assert.assertFalse("Output shouldn't exist", output.exists());
+        Assert.assertFalse("Corrupt blob shouldn't be copied", new File(local, LocalCache.BLOBS + "/" + digest).exists());
+    }
+
+    @Test
+    public void unreachable() throws Exception {
+        server.stop();
+        Assert.assertNull("Action shouldn't be cached", cache.getAction(KEY));
+        Mockito.verify(match, Mockito.times(1)).warn(Mockito.anyString());
+    }
+}
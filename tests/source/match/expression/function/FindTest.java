@@ -20,15 +20,21 @@ import config.Config;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import match.FileTree;
 import match.IMatch;
+import match.Ignore;
 import match.ITarget;
 import match.MatchTest;
+import match.PathTable;
 import match.expression.IExpression;
 import match.expression.Literal;
 
@@ -98,10 +104,54 @@ public class FindTest {
         resolve(filesD, Find.DIRECTORY, C, Find.PATTERN, C_D_E);
     }
 
+    @Test
+    public void resolveGlob() {
+        resolve(filesD, Find.DIRECTORY, "", Find.INCLUDE, "c/**", Find.EXCLUDE, "**/f");
+    }
+
+    @Test
+    public void resolveGlobTree() {
+        PathTable paths = new PathTable();
+        FileTree tree = new FileTree(paths);
+        tree.add(paths.add(root.toPath().toAbsolutePath().toString()), true);
+        tree.add(paths.add(new File(root, "bar").toPath().toAbsolutePath().toString()), false);
+        tree.add(paths.add(new File(root, "c").toPath().toAbsolutePath().toString()), true);
+        tree.add(paths.add(new File(root, "c/d").toPath().toAbsolutePath().toString()), true);
+        tree.add(paths.add(new File(root, "c/d/e").toPath().toAbsolutePath().toString()), false);
+        resolve(filesD, tree, Find.ANONYMOUS, "", Find.INCLUDE, "**/e");
+    }
+
+    @Test
+    public void resolveIgnored() throws IOException {
+        Files.write(new File(root, Ignore.FILE).toPath(), Collections.singletonList("d/"), StandardCharsets.UTF_8);
+        Set<String> expected = new HashSet<String>();
+        expected.add("a/b");
+        expected.add("bar");
+        resolve(expected, Function.ANONYMOUS, "");
+    }
+
+    @Test
+    public void resolveTree() {
+        // Only the files in the tree should be found
+        PathTable paths = new PathTable();
+        FileTree tree = new FileTree(paths);
+        tree.add(paths.add(root.toPath().toAbsolutePath().toString()), true);
+        tree.add(paths.add(new File(root, "bar").toPath().toAbsolutePath().toString()), false);
+        Set<String> expected = new HashSet<String>();
+        expected.add("bar");
+        resolve(expected, tree, Function.ANONYMOUS, "");
+    }
+
     private void resolve(Set<String> expected, String... values) {
+        resolve(expected, null, values);
+    }
+
+    private void resolve(Set<String> expected, FileTree tree, String... values) {
         IMatch match = Mockito.mock(IMatch.class);
+        Mockito.when(match.getFileTree()).thenReturn(tree);
         ITarget target = Mockito.mock(ITarget.class);
         Mockito.when(match.getRootDir()).thenReturn(root);
+        Mockito.when(match.getIgnore()).thenReturn(new Ignore(root.toPath()));
         Mockito.when(target.getFile()).thenReturn(new File(root, "match"));
         Map<String, IExpression> parameters = new HashMap<String, IExpression>();
         for (int i = 0; i < values.length; i++) {
@@ -16,11 +16,14 @@
 
 package match.expression.function;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import match.IMatch;
 import match.ITarget;
+import match.expression.ExpressionList;
 import match.expression.IExpression;
 import match.expression.Literal;
 
@@ -66,6 +69,18 @@ public class FunctionTest {
         Assert.assertEquals("Wrong parameter", BAR, function.getParameter(FOO).resolve());
     }
 
+    /**
+     * Tests only the literals are taken from an expression, and nothing is resolved.
+     */
+    @Test
+    public void getLiterals() {
+        IExpression get = Mockito.mock(IExpression.class);
+        IExpression list = new ExpressionList(match, target, Arrays.asList(new Literal(match, target, FOO), get));
+        Assert.assertEquals("Wrong literals", Collections.singletonList(FOO), Function.getLiterals(list));
+        Mockito.verify(get, Mockito.never()).resolve();
+        Mockito.verify(get, Mockito.never()).resolveList();
+    }
+
     /**
      * Tests the function can be retrieved without errors.
      */
@@ -17,13 +17,19 @@
 package match.expression.function;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 
 import match.IMatch;
 import match.ITarget;
+import match.Utilities;
+import match.archive.ArchiveWriter;
 import match.expression.IExpression;
 import match.expression.Literal;
+import match.java.Javac;
 
 import org.junit.Assert;
 import org.junit.Rule;
@@ -38,11 +44,13 @@ public class JavaJarTest {
 
     private static final String FOOBAR = "FooBar";
     private static final String RESOURCE = "resource/FooBar.txt";
+    private static final String SOURCE = "FooBar.java";
     private static final String CLASSES_OUT = "out/java/classes/FooBar/";
-    private static final String JARS_OUT = "out/java/jar/";
     private static final String JAR_OUT = "out/java/jar/FooBar.jar";
-    private static final String MANIFEST_OUT = "out/java/manifest/FooBar/";
-    private static final String MANIFEST_MF = "out/java/manifest/FooBar/MANIFEST.MF";
+    private static final String ABI_OUT = "out/java/abi/FooBar";
+    private static final String HEADER_OUT = "out/java/header/FooBar.jar";
+    private static final String LIBRARY = "Library";
+    private static final String LIBRARY_RESOURCE = "library/Library.txt";
 
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
@@ -66,13 +74,89 @@ public class JavaJarTest {
         Assert.assertEquals("Wrong resolution", jarOut, function.resolve());
         Mockito.verify(match, Mockito.times(1)).setProperty(Mockito.eq(FOOBAR), Mockito.eq(jarOut));
         Mockito.verify(match, Mockito.times(1)).addFile(Mockito.eq(jarOut));
+        String abiOut = new File(folder.getRoot(), ABI_OUT).toPath().toString();
+        Mockito.verify(match, Mockito.times(1)).setProperty(Mockito.eq(FOOBAR + JavaJar.ABI), Mockito.eq(abiOut));
+        Mockito.verify(match, Mockito.times(1)).addFile(Mockito.eq(abiOut));
+        Mockito.verify(match, Mockito.times(1)).provideFile(Mockito.eq(new File(folder.getRoot(), ABI_OUT)));
+        String headerOut = new File(folder.getRoot(), HEADER_OUT).toPath().toString();
+        Mockito.verify(match, Mockito.times(1)).setProperty(Mockito.eq(FOOBAR + JavaJar.HEADER), Mockito.eq(headerOut));
+        Mockito.verify(match, Mockito.times(1)).provideFile(Mockito.eq(new File(folder.getRoot(), HEADER_OUT)));
         Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, CLASSES_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, MANIFEST_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, JARS_OUT)));
-        String manifest = new File(folder.getRoot(), MANIFEST_MF).toPath().toString();
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("echo \"Manifest-Version: 1.0\nMain-Class: FooBar\" > %s", manifest)));
         Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("javac  FooBar -d %s", CLASSES_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("jar cfm %s %s  -C %s .", jarOut, manifest, CLASSES_OUT)));
+        Mockito.verify(target, Mockito.times(1)).recordCommand(Mockito.eq(String.format("jar cfe %s FooBar  -C %s .", jarOut, CLASSES_OUT)));
+        Assert.assertTrue("Jar should be written", new File(jarOut).exists());
+    }
+
+    /**
+     * Tests the JavaJar function compiling inside the JVM.
+     */
+    @Test
+    public void javaJarInProcess() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        ITarget target = Mockito.mock(ITarget.class);
+        Mockito.when(match.getCompiler()).thenReturn(Javac.create());
+        Mockito.when(target.getDirectory()).thenReturn(folder.getRoot());
+        Mockito.when(target.getFile()).thenReturn(new File(folder.getRoot(), "match"));
+        Utilities.writeStringToFile("public class FooBar {}", folder.newFile(SOURCE));
+        Map<String, IExpression> parameters = new HashMap<String, IExpression>();
+        parameters.put(Function.NAME, new Literal(match, target, FOOBAR));
+        parameters.put(Function.SOURCE, new Literal(match, target, SOURCE));
+        parameters.put(JavaJar.MAIN_CLASS, new Literal(match, target, FOOBAR));
+        IFunction function = new JavaJar(match, target, parameters);
+        function.configure();
+        function.resolve();
+        String javac = String.format("javac  %s -d %s", SOURCE, CLASSES_OUT);
+        Mockito.verify(target, Mockito.times(1)).recordCommand(Mockito.eq(javac));
+        Mockito.verify(target, Mockito.never()).runCommand(Mockito.eq(javac));
+        Mockito.verify(match, Mockito.never()).error(Mockito.anyString());
+        Assert.assertTrue("Class should be compiled", new File(folder.getRoot(), CLASSES_OUT + "FooBar.class").exists());
+        JarFile jar = new JarFile(new File(folder.getRoot(), JAR_OUT));
+        try {
+            Assert.assertEquals("Wrong main class", FOOBAR, jar.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+            Assert.assertNotNull("Class should be packaged", jar.getEntry("FooBar.class"));
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * Tests that the JavaJar function merges libraries into a fat jar.
+     */
+    @Test
+    public void javaJarFat() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        ITarget target = Mockito.mock(ITarget.class);
+        Mockito.when(match.getCompiler()).thenReturn(Javac.create());
+        Mockito.when(target.getDirectory()).thenReturn(folder.getRoot());
+        Mockito.when(target.getFile()).thenReturn(new File(folder.getRoot(), "match"));
+        File library = new File(folder.getRoot(), LIBRARY + ".jar");
+        ArchiveWriter writer = new ArchiveWriter(library);
+        try {
+            writer.add(LIBRARY_RESOURCE, LIBRARY.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            writer.close();
+        }
+        Mockito.when(match.getProperty(LIBRARY)).thenReturn(library.getPath());
+        Utilities.writeStringToFile("public class FooBar {}", folder.newFile(SOURCE));
+        Map<String, IExpression> parameters = new HashMap<String, IExpression>();
+        parameters.put(Function.NAME, new Literal(match, target, FOOBAR));
+        parameters.put(Function.SOURCE, new Literal(match, target, SOURCE));
+        parameters.put(Function.LIBRARY, new Literal(match, target, LIBRARY));
+        parameters.put(JavaJar.MAIN_CLASS, new Literal(match, target, FOOBAR));
+        parameters.put(JavaJar.FAT_JAR, new Literal(match, target, "true"));
+        IFunction function = new JavaJar(match, target, parameters);
+        function.configure();
+        function.resolve();
+        Mockito.verify(match, Mockito.times(1)).requireProperty(Mockito.eq(LIBRARY));
+        Mockito.verify(match, Mockito.times(2)).awaitFile(Mockito.eq(library.getPath()));
+        Mockito.verify(match, Mockito.never()).error(Mockito.any(Exception.class));
+        JarFile jar = new JarFile(new File(folder.getRoot(), JAR_OUT));
+        try {
+            Assert.assertNotNull("Class should be packaged", jar.getEntry("FooBar.class"));
+            Assert.assertNotNull("Library should be merged", jar.getEntry(LIBRARY_RESOURCE));
+        } finally {
+            jar.close();
+        }
     }
 
     /**
@@ -87,7 +171,7 @@ public class JavaJarTest {
      * Tests the commands generated by the JavaJar function with resources.
      */
     @Test
-    public void javaJarResource() {
+    public void javaJarResource() throws Exception {
         IMatch match = Mockito.mock(IMatch.class);
         ITarget target = Mockito.mock(ITarget.class);
         Mockito.when(target.getDirectory()).thenReturn(folder.getRoot());
@@ -97,6 +181,8 @@ public class JavaJarTest {
         parameters.put(Function.SOURCE, new Literal(match, target, FOOBAR));
         parameters.put(JavaJar.MAIN_CLASS, new Literal(match, target, FOOBAR));
         parameters.put(JavaJar.RESOURCE, new Literal(match, target, RESOURCE));
+        folder.newFolder("resource");
+        Utilities.writeStringToFile(FOOBAR, new File(folder.getRoot(), RESOURCE));
         IFunction function = new JavaJar(match, target, parameters);
         function.configure();
         String jarOut = new File(folder.getRoot(), JAR_OUT).toPath().toString();
@@ -104,12 +190,15 @@ public class JavaJarTest {
         Mockito.verify(match, Mockito.times(1)).setProperty(Mockito.eq(FOOBAR), Mockito.eq(jarOut));
         Mockito.verify(match, Mockito.times(1)).addFile(Mockito.eq(jarOut));
         Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, CLASSES_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, MANIFEST_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format(JavaJar.MKDIR_COMMAND, JARS_OUT)));
-        String manifest = new File(folder.getRoot(), MANIFEST_MF).toPath().toString();
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("echo \"Manifest-Version: 1.0\nMain-Class: FooBar\" > %s", manifest)));
         Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("javac  FooBar -d %s", CLASSES_OUT)));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("jar cfm %s %s %s -C %s .", jarOut, manifest, RESOURCE, CLASSES_OUT)));
+        Mockito.verify(target, Mockito.times(1)).recordCommand(Mockito.eq(String.format("jar cfe %s FooBar %s -C %s .", jarOut, RESOURCE, CLASSES_OUT)));
+        Mockito.verify(match, Mockito.never()).error(Mockito.any(Exception.class));
+        JarFile jar = new JarFile(jarOut);
+        try {
+            Assert.assertNotNull("Resource should be packaged", jar.getEntry(RESOURCE));
+        } finally {
+            jar.close();
+        }
     }
 
 }
@@ -20,15 +20,19 @@ import config.Config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import match.IMatch;
 import match.ITarget;
 import match.MatchTest;
+import match.Utilities;
 import match.expression.Expression;
 import match.expression.ExpressionList;
 import match.expression.IExpression;
@@ -52,10 +56,8 @@ public class ZipTest {
     private static final String C_D_DIR = "c/d";
     private static final String C_D_E_FILE = "c/d/e";
     private static final String C_D_F_FILE = "c/d/f";
-    private static final String ZIPS_OUT = "out/zip/";
     private static final String ZIP_OUT = "out/zip/FooBar.zip";
     private static final String SOURCES = C_D_E_FILE + " " + C_D_F_FILE + " " + FOO_JAR;
-    private static final String MKDIR_ZIP_OUT_COMMAND = String.format("mkdir -p %s", ZIPS_OUT);
 
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
@@ -84,10 +86,10 @@ public class ZipTest {
     }
 
     /**
-     * Tests the commands generated by the Zip function.
+     * Tests the commands recorded by the Zip function, and the zip it writes.
      */
     @Test
-    public void zip() {
+    public void zip() throws Exception {
         IMatch match = Mockito.mock(IMatch.class);
         ITarget target = Mockito.mock(ITarget.class);
         Mockito.when(match.getRootDir()).thenReturn(root);
@@ -105,6 +107,9 @@ public class ZipTest {
         elements.add(f);
         ExpressionList sources = new ExpressionList(match, target, elements);
         parameters.put(Function.SOURCE, sources);
+        File jar = new File(root, FOO_JAR);
+        jar.getParentFile().mkdirs();
+        Utilities.writeStringToFile(FOOBAR, jar);
         IFunction function = new Zip(match, target, parameters);
         function.configure();
         String output = new File(root, ZIP_OUT).toPath().toString();
@@ -115,8 +120,78 @@ public class ZipTest {
         Mockito.verify(match, Mockito.times(1)).awaitFile(Mockito.eq(FOO_JAR));
         Mockito.verify(match, Mockito.times(1)).awaitFile(Mockito.eq(cdeFile.toPath().normalize().toAbsolutePath().toString()));
         Mockito.verify(match, Mockito.times(1)).awaitFile(Mockito.eq(cdfFile.toPath().normalize().toAbsolutePath().toString()));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(MKDIR_ZIP_OUT_COMMAND));
-        Mockito.verify(target, Mockito.times(1)).runCommand(Mockito.eq(String.format("zip -r %s %s", output, SOURCES)));
+        Mockito.verify(target, Mockito.never()).runCommand(Mockito.anyString());
+        Mockito.verify(target, Mockito.times(1)).recordCommand(Mockito.eq(String.format("zip -r %s %s", output, SOURCES)));
+        ZipFile zip = new ZipFile(output);
+        try {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+            Assert.assertEquals("Wrong entries", Arrays.asList(C_D_E_FILE, C_D_F_FILE, FOO_JAR), names);
+        } finally {
+            zip.close();
+        }
+        // Resolving again with the same sources leaves the zip as it is
+        File file = new File(output);
+        Assert.assertTrue("Couldn't set time", file.setLastModified(0));
+        function.resolve();
+        Assert.assertEquals("Zip should not be rewritten", 0, file.lastModified());
+    }
+
+    /**
+     * Tests that absolute sources are named as the zip tool names them, whether or not they are
+     * under the target's directory.
+     */
+    @Test
+    public void zip_absolute() throws Exception {
+        IMatch match = Mockito.mock(IMatch.class);
+        ITarget target = Mockito.mock(ITarget.class);
+        Mockito.when(match.getRootDir()).thenReturn(root);
+        Mockito.when(target.getDirectory()).thenReturn(root);
+        Mockito.when(target.getFile()).thenReturn(new File(root, "match"));
+        File outside = new File(folder.newFolder(), FOOBAR);
+        Utilities.writeStringToFile(FOOBAR, outside);
+        List<String> paths = Arrays.asList(cdeFile.getAbsolutePath(), outside.getAbsolutePath());
+        List<IExpression> elements = new ArrayList<IExpression>();
+        for (String path : paths) {
+            elements.add(new Literal(match, target, path));
+        }
+        Map<String, IExpression> parameters = new HashMap<>();
+        parameters.put(Function.NAME, new Literal(match, target, FOOBAR));
+        parameters.put(Function.SOURCE, new ExpressionList(match, target, elements));
+        IFunction function = new Zip(match, target, parameters);
+        function.configure();
+        List<String> expected = new ArrayList<>();
+        for (String path : paths) {
+            expected.add(path.substring(1));
+        }
+        Collections.sort(expected);
+        Assert.assertEquals("Wrong entries", expected, getNames(new File(function.resolve())));
+        File tool = new File("/usr/bin/zip");
+        if (tool.canExecute()) {
+            File zip = new File(folder.newFolder(), "tool.zip");
+            List<String> command = new ArrayList<>(Arrays.asList(tool.getPath(), "-q", "-r", zip.getPath()));
+            command.addAll(paths);
+            Process process = new ProcessBuilder(command).directory(root).inheritIO().start();
+            Assert.assertEquals("zip failed", 0, process.waitFor());
+            List<String> names = getNames(zip);
+            Collections.sort(names);
+            Assert.assertEquals("Entries should match the zip tool", names, expected);
+        }
+    }
+
+    private static List<String> getNames(File file) throws Exception {
+        ZipFile zip = new ZipFile(file);
+        try {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+            return names;
+        } finally {
+            zip.close();
+        }
     }
 
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import match.Utilities;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for Abi.
+ */
+public class AbiTest {
+
+    private static final String FOO = "public class Foo { public int foo() { return 1; } }";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void digest_implementation() throws Exception {
+        Assert.assertEquals("Method bodies shouldn't affect the digest", digest(FOO),
+                digest("public class Foo { public int foo() { return 2; } }"));
+        Assert.assertEquals("Private members shouldn't affect the digest", digest(FOO),
+                digest("public class Foo { private int bar; public int foo() { return bar(); } private int bar() { return 1; } }"));
+        Assert.assertEquals("Anonymous classes shouldn't affect the digest", digest(FOO),
+                digest("public class Foo { public int foo() { return new Object() { int bar() { return 1; } }.bar(); } }"));
+    }
+
+    @Test
+    public void digest_interface() throws Exception {
+        Assert.assertNotEquals("Method signatures should affect the digest", digest(FOO),
+                digest("public class Foo { public long foo() { return 1; } }"));
+        Assert.assertNotEquals("Protected members should affect the digest", digest(FOO),
+                digest("public class Foo { protected int bar; public int foo() { return 1; } }"));
+        Assert.assertNotEquals("Nested classes should affect the digest", digest(FOO),
+                digest("public class Foo { public static class Bar {} public int foo() { return 1; } }"));
+        Assert.assertNotEquals("Generic signatures should affect the digest",
+                digest("public class Foo { public java.util.List<String> foo() { return null; } }"),
+                digest("public class Foo { public java.util.List<Integer> foo() { return null; } }"));
+    }
+
+    @Test
+    public void digest_constant() throws Exception {
+        Assert.assertNotEquals("Constant values should affect the digest",
+                digest("public class Foo { public static final int FOO = 1; }"),
+                digest("public class Foo { public static final int FOO = 2; }"));
+    }
+
+    @Test
+    public void digest_annotation() throws Exception {
+        Assert.assertNotEquals("Annotations should affect the digest",
+                digest("public interface Foo { void foo(); }"),
+                digest("@FunctionalInterface public interface Foo { void foo(); }"));
+        Assert.assertNotEquals("Annotation values should affect the digest",
+                digest("@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS) public @interface Foo {}"),
+                digest("@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) public @interface Foo {}"));
+        Assert.assertNotEquals("Element defaults should affect the digest",
+                digest("public @interface Foo { int foo() default 1; }"),
+                digest("public @interface Foo { int foo() default 2; }"));
+        Assert.assertEquals("The constant pool layout shouldn't affect the digest",
+                digest("public class Foo { @Deprecated public int foo() { return 3; } }"),
+                digest("public class Foo { @Deprecated public int foo() { return \"bar\".length(); } }"));
+    }
+
+    private String digest(String source) throws Exception {
+        File directory = folder.newFolder();
+        Utilities.writeStringToFile(source, new File(directory, "Foo.java"));
+        File output = new File(directory, "classes");
+        StringWriter errors = new StringWriter();
+        Assert.assertTrue(errors.toString(), Javac.create().compile(Collections.<String>emptyList(), Collections.singletonList("Foo.java"), directory, output, errors));
+        return Abi.digest(output);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import match.Utilities;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for HeaderJar.
+ */
+public class HeaderJarTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void strip() throws Exception {
+        File classes = compile(folder.getRoot(), "Foo.java", "public class Foo { private int foo; public static final String BAR = \"bar\"; public int foo() { return foo; } private void bar() {} }");
+        byte[] bytes = Files.readAllBytes(new File(classes, "Foo.class").toPath());
+        ClassFile classFile = new ClassFile(HeaderJar.strip(bytes));
+        Assert.assertEquals("Wrong name", "Foo", classFile.getName());
+        Assert.assertEquals("Wrong number of fields", 1, classFile.getFields().size());
+        Assert.assertNotNull("Constant should be kept", classFile.getFields().get(0).getAttribute("ConstantValue"));
+        Assert.assertEquals("Wrong number of methods", 2, classFile.getMethods().size());
+        for (ClassFile.Member method : classFile.getMethods()) {
+            Assert.assertNull("Method body should be stripped", method.getAttribute("Code"));
+        }
+        Assert.assertEquals("Stripping shouldn't change the interface", Abi.describe(new ClassFile(bytes)), Abi.describe(classFile));
+    }
+
+    @Test
+    public void write() throws Exception {
+        File foo = folder.newFolder();
+        File classes = compile(foo, "Foo.java", "package foo; public class Foo { public static class Inner {} public int foo() { return 1; } }");
+        File jar = new File(folder.getRoot(), "header/Foo.jar");
+        HeaderJar.write(classes, jar);
+        File bar = folder.newFolder();
+        Utilities.writeStringToFile("public class Bar { int bar = new foo.Foo().foo(); foo.Foo.Inner inner; }", new File(bar, "Bar.java"));
+        StringWriter errors = new StringWriter();
+        Assert.assertTrue(errors.toString(), Javac.create().compile(Collections.singletonList(jar.getPath()), Collections.singletonList("Bar.java"), bar, new File(bar, "classes"), errors));
+    }
+
+    private static File compile(File directory, String name, String source) throws Exception {
+        Utilities.writeStringToFile(source, new File(directory, name));
+        File output = new File(directory, "classes");
+        StringWriter errors = new StringWriter();
+        Assert.assertTrue(errors.toString(), Javac.create().compile(Collections.<String>emptyList(), Collections.singletonList(name), directory, output, errors));
+        return output;
+    }
+}
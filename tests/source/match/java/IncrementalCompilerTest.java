@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import match.Hasher;
+import match.Utilities;
+import match.archive.ArchiveWriter;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for IncrementalCompiler.
+ */
+public class IncrementalCompilerTest {
+
+    private static final String A = "A.java";
+    private static final String B = "B.java";
+    private static final String C = "C.java";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IncrementalCompiler compiler;
+    private File output;
+    private File state;
+
+    /**
+     * Sets up a compiler writing classes into a temporary directory.
+     */
+    @Before
+    public void setUp() throws Exception {
+        compiler = new IncrementalCompiler(Javac.create(), new Hasher());
+        output = new File(folder.getRoot(), "classes");
+        state = new File(folder.getRoot(), "state");
+        write(A, "public class A { B b; Runnable r = new Runnable() { public void run() {} }; }");
+        write(B, "public class B { class Inner {} }");
+        write(C, "public class C {}");
+    }
+
+    @Test
+    public void compile_unchanged() throws Exception {
+        compile(A, B, C);
+        touch("A", "A$1", "B", "B$Inner", "C");
+        compile(A, B, C);
+        assertCompiled(false, "A", "A$1", "B", "B$Inner", "C");
+    }
+
+    @Test
+    public void compile_changed() throws Exception {
+        compile(A, B, C);
+        touch("A", "A$1", "B", "B$Inner", "C");
+        write(C, "public class C { int c; }");
+        compile(A, B, C);
+        assertCompiled(false, "A", "A$1", "B", "B$Inner");
+        assertCompiled(true, "C");
+    }
+
+    @Test
+    public void compile_dependents() throws Exception {
+        compile(A, B, C);
+        touch("A", "A$1", "B", "B$Inner", "C");
+        write(B, "public class B { int b; }");
+        compile(A, B, C);
+        assertCompiled(true, "A", "A$1", "B");
+        assertCompiled(false, "C");
+        Assert.assertFalse("Stale inner class should be deleted", new File(output, "B$Inner.class").exists());
+    }
+
+    @Test
+    public void compile_deleted() throws Exception {
+        compile(A, B, C);
+        new File(folder.getRoot(), C).delete();
+        compile(A, B);
+        Assert.assertFalse("Stale class should be deleted", new File(output, "C.class").exists());
+    }
+
+    @Test
+    public void compile_constant() throws Exception {
+        write(C, "public class C { public static final int X = 1; }");
+        write(A, "public class A { int x = C.X; }");
+        compile(A, B, C);
+        touch("A", "B", "B$Inner", "C");
+        write(C, "public class C { public static final int X = 2; }");
+        compile(A, B, C);
+        // A inlines the constant without referring to C, so everything has to be recompiled
+        assertCompiled(true, "A", "B", "B$Inner", "C");
+    }
+
+    @Test
+    public void compile_classpath() throws Exception {
+        compile(A, B, C);
+        touch("A", "A$1", "B", "B$Inner", "C");
+        File library = new File(folder.getRoot(), "library.jar");
+        ArchiveWriter writer = new ArchiveWriter(library);
+        try {
+            writer.add("library.txt", "library".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            writer.close();
+        }
+        compile(Collections.singletonList(library.getPath()), A, B, C);
+        assertCompiled(true, "A", "A$1", "B", "B$Inner", "C");
+    }
+
+    private void compile(String... sources) throws Exception {
+        compile(Collections.<String>emptyList(), sources);
+    }
+
+    private void compile(List<String> classpath, String... sources) throws Exception {
+        StringWriter errors = new StringWriter();
+        boolean compiled = compiler.compile(classpath, Collections.<String, String>emptyMap(), Arrays.asList(sources), folder.getRoot(), output, state, errors);
+        Assert.assertTrue(errors.toString(), compiled);
+    }
+
+    private void write(String name, String source) throws Exception {
+        Utilities.writeStringToFile(source, new File(folder.getRoot(), name));
+    }
+
+    private void touch(String... classes) {
+        for (String name : classes) {
+            File file = new File(output, name + ".class");
+            Assert.assertTrue(name + " should be compiled", file.exists());
+            file.setLastModified(0);
+        }
+    }
+
+    private void assertCompiled(boolean compiled, String... classes) {
+        for (String name : classes) {
+            File file = new File(output, name + ".class");
+            Assert.assertTrue(name + " should exist", file.exists());
+            Assert.assertEquals(name + (compiled ? " should" : " shouldn't") + " be recompiled", compiled, file.lastModified() != 0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Stuart Scott
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package match.java;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import match.Utilities;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for Javac.
+ */
+public class JavacTest {
+
+    private static final String FOO = "Foo.java";
+    private static final String BAR = "Bar.java";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compile() throws Exception {
+        Javac javac = Javac.create();
+        File output = new File(folder.getRoot(), "classes");
+        Utilities.writeStringToFile("public class Foo { class Inner {} }", folder.newFile(FOO));
+        Utilities.writeStringToFile("public class Bar { Foo foo; }", folder.newFile(BAR));
+        StringWriter errors = new StringWriter();
+        Assert.assertTrue("Foo should compile", javac.compile(Collections.<String>emptyList(), Collections.singletonList(FOO), folder.getRoot(), output, errors));
+        Assert.assertTrue("Foo should be compiled", new File(output, "Foo.class").exists());
+        Assert.assertTrue("Foo.Inner should be compiled", new File(output, "Foo$Inner.class").exists());
+        // The file manager is reused, but Bar is compiled against Foo's classes in its own output
+        File other = new File(folder.getRoot(), "other");
+        Assert.assertTrue("Bar should compile", javac.compile(Collections.singletonList(output.getPath()), Collections.singletonList(BAR), folder.getRoot(), other, errors));
+        Assert.assertTrue("Bar should be compiled", new File(other, "Bar.class").exists());
+        Assert.assertFalse("Foo shouldn't be recompiled", new File(other, "Foo.class").exists());
+    }
+
+    @Test
+    public void compile_error() throws Exception {
+        Javac javac = Javac.create();
+        File output = new File(folder.getRoot(), "classes");
+        Utilities.writeStringToFile("public class Foo { Baz baz; }", folder.newFile(FOO));
+        StringWriter errors = new StringWriter();
+        Assert.assertFalse("Foo shouldn't compile", javac.compile(Collections.<String>emptyList(), Collections.singletonList(FOO), folder.getRoot(), output, errors));
+        Assert.assertTrue("Missing error", errors.toString().contains("Baz"));
+    }
+}